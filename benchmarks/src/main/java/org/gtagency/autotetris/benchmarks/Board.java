@@ -0,0 +1,163 @@
+package org.gtagency.autotetris.benchmarks;
+
+import org.gtagency.autotetris.bot.BotState;
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.ShapeType;
+
+/**
+ * Fixed boards the benchmarks run on. Rows are drawn top to bottom with
+ * '.' for empty, 'o' for the current shape, '#' for blocks and 'X' for
+ * solid garbage rows. The current shape is drawn at its start position,
+ * its top row is above the field.
+ */
+public enum Board {
+    EMPTY(ShapeType.T, ShapeType.I,
+            "...ooo....",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            ".........."),
+    MID_GAME(ShapeType.L, ShapeType.S,
+            "...ooo....",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "#.........",
+            "##......#.",
+            "##.#...###",
+            "####.#####",
+            "#####.####",
+            "###.######",
+            "######.###",
+            "####.#####",
+            "#.########"),
+    NEAR_TOP_OUT(ShapeType.Z, ShapeType.J,
+            "....oo....",
+            "..........",
+            "..........",
+            "#.......##",
+            "##.....###",
+            "###..#.###",
+            "####.#####",
+            "###.######",
+            "####.#####",
+            "#.########",
+            "####.#####",
+            "#####.####",
+            "##.#######",
+            "######.###",
+            "####.#####",
+            "###.######",
+            "#######.##",
+            "#.########",
+            "####.#####",
+            "########.#"),
+    GARBAGE(ShapeType.I, ShapeType.T,
+            "...oooo...",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "..........",
+            "........#.",
+            "#.......##",
+            "##.#...###",
+            "####.#####",
+            "###.######",
+            "#####.####",
+            "######.###",
+            "XXXXXXXXXX",
+            "XXXXXXXXXX",
+            "XXXXXXXXXX",
+            "XXXXXXXXXX");
+
+    public static final int WIDTH = 10;
+    public static final int HEIGHT = 20;
+
+    private final ShapeType current;
+    private final ShapeType next;
+    private final String[] rows;
+
+    private Board(ShapeType current, ShapeType next, String... rows) {
+        this.current = current;
+        this.next = next;
+        this.rows = rows;
+    }
+
+    /**
+     * @return the board in the format of the engine's field updates
+     */
+    public String toFieldString() {
+        StringBuilder field = new StringBuilder();
+        for(int y=0; y < rows.length; y++) {
+            for(int x=0; x < WIDTH; x++) {
+                if(x > 0)
+                    field.append(',');
+                field.append(code(rows[y].charAt(x)));
+            }
+            if(y < rows.length - 1)
+                field.append(';');
+        }
+        return field.toString();
+    }
+
+    private static int code(char cell) {
+        return ".o#X".indexOf(cell);
+    }
+
+    /**
+     * @return the board without the current shape
+     */
+    public Field toField() {
+        return new Field(WIDTH, HEIGHT, toFieldString().replace('1', '0'));
+    }
+
+    /**
+     * @return a state as the engine sends it at the start of a move on this board
+     */
+    public BotState toState() {
+        BotState state = new BotState();
+        state.updateSettings("timebank", "10000");
+        state.updateSettings("time_per_move", "500");
+        state.updateSettings("player_names", "player1,player2");
+        state.updateSettings("your_bot", "player1");
+        state.updateSettings("field_width", Integer.toString(WIDTH));
+        state.updateSettings("field_height", Integer.toString(HEIGHT));
+        state.updateState("game", "round", "1");
+        state.updateState("game", "this_piece_type", current.name());
+        state.updateState("game", "next_piece_type", next.name());
+        state.updateState("game", "this_piece_position", current.startX() + "," + current.startY());
+        for(String player : new String[] {"player1", "player2"}) {
+            state.updateState(player, "row_points", "0");
+            state.updateState(player, "combo", "0");
+            state.updateState(player, "skips", "0");
+            state.updateState(player, "field", toFieldString());
+        }
+        return state;
+    }
+}
@@ -0,0 +1,170 @@
+package org.gtagency.autotetris.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.gtagency.autotetris.bot.PrimaryUtility;
+import org.gtagency.autotetris.bot.ProtocolReader;
+import org.gtagency.autotetris.bot.Utility;
+import org.gtagency.autotetris.bot.WeightProfiles;
+import org.gtagency.autotetris.field.CellType;
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Field operations and the evaluator on their own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldBenchmark {
+
+    // a profile with none of the default weights, the evaluator has to be as fast with it as with the defaults
+    private static final String TUNED = "transition=1.3 sided_hole=8.4 hole=11.2 cover=18.1 cover_decay=.71 neighbor=2.2 "
+            + "extreme_height=214 extreme_height_linear=111 perfect_clear=760 side_stacking=7.3 height_difference=2.4 "
+            + "asymmetry_divisor=2.6 max_min_difference=1.3 max_min_allowed=4.5 downstack_holes=5.5 one_cleared=27 "
+            + "one_cleared_bias=.55 two_cleared=22 three_cleared=38 three_cleared_bias=.66 four_cleared=71 one_spin=63 two_spin=97";
+
+    @Param
+    public Board board;
+
+    private String fieldString;
+    private Field field;
+    private Field withFullRow; // the board with its lowest non solid row filled up
+    private Shape shape;
+    private ProtocolReader reader; // reads the field update of the board over and over
+    private int[] blockRows = new int[Board.HEIGHT];
+    private int[] solidRows = new int[Board.HEIGHT];
+    private int[] shapeRows = new int[Board.HEIGHT];
+    private int[] emptyRows = new int[Board.HEIGHT];
+    private Field target;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fieldString = board.toFieldString();
+        field = board.toField();
+        withFullRow = board.toField();
+        int y = Board.HEIGHT - 1;
+        while(withFullRow.getSolidRow(y) != 0) {
+            y--;
+        }
+        for(int x=0; x < Board.WIDTH; x++) {
+            withFullRow.setState(x, y, CellType.BLOCK);
+        }
+        shape = new Shape(ShapeType.T, ShapeType.T.startPos());
+        reader = new ProtocolReader(new RepeatingInputStream(("update player1 field " + fieldString + "\n").getBytes(StandardCharsets.US_ASCII)));
+        target = new Field(Board.WIDTH, Board.HEIGHT);
+    }
+
+    /**
+     * The evaluator of the value benchmark, a state of its own so the
+     * other benchmarks do not run once per weight profile
+     */
+    @State(Scope.Thread)
+    public static class Evaluator {
+        @Param({"default", "tuned"})
+        public String weights;
+
+        private Utility utility;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            utility = new PrimaryUtility(weights.equals("tuned") ? WeightProfiles.parse(TUNED) : PrimaryUtility.getDefaultWeights());
+        }
+    }
+
+    /**
+     * An endless input of the same bytes
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        RepeatingInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            int b = bytes[position];
+            position = (position + 1) % bytes.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position = (position + n) % bytes.length;
+            return n;
+        }
+    }
+
+    @Benchmark
+    public Field parse() {
+        return new Field(Board.WIDTH, Board.HEIGHT, fieldString);
+    }
+
+    /**
+     * The same field as parse, read the way BotParser reads its input
+     * and applied to an empty field, so every non empty row changes
+     */
+    @Benchmark
+    public Field readField() throws IOException {
+        reader.next();
+        reader.readField(3, Board.WIDTH, Board.HEIGHT, blockRows, solidRows, shapeRows);
+        target.setRows(emptyRows, emptyRows, emptyRows);
+        target.setRows(blockRows, solidRows, shapeRows);
+        return target;
+    }
+
+    /**
+     * Includes copying the field, so the row is there again for the next call
+     */
+    @Benchmark
+    public int removeFullRows() {
+        return withFullRow.clone().removeFullRows();
+    }
+
+    @Benchmark
+    public int canTSpin() {
+        return field.canTSpin();
+    }
+
+    @Benchmark
+    public double value(Evaluator evaluator) {
+        return evaluator.utility.value(field, null, null, null, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public int rotate() {
+        int orientations = 0;
+        for(int i=0; i < 4; i++) {
+            shape.turnRight();
+            orientations += shape.getOrientation();
+        }
+        for(int i=0; i < 4; i++) {
+            shape.turnLeft();
+            orientations += shape.getOrientation();
+        }
+        return orientations;
+    }
+}
@@ -0,0 +1,81 @@
+package org.gtagency.autotetris.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gtagency.autotetris.bot.BotStarter;
+import org.gtagency.autotetris.bot.BotState;
+import org.gtagency.autotetris.bot.PlacementGenerator;
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.moves.MoveType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The move search: finding the placements of one shape and a whole move.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+    @Param
+    public Board board;
+
+    private Field field;
+    private Shape shape;
+    private PlacementGenerator generator;
+
+    /**
+     * The bot and state of one getMoves call. getMoves lifts the shape out
+     * of the state's field, so every call gets a new state, and a new bot so
+     * no call is answered from the previous call's transposition table. It
+     * is a state of its own so generatePlacements does not pay for it.
+     */
+    @State(Scope.Thread)
+    public static class Move {
+        private BotStarter bot;
+        private BotState state;
+
+        @Setup(Level.Invocation)
+        public void setup(SearchBenchmark benchmark) {
+            bot = new BotStarter(1, 2);
+            state = benchmark.board.toState();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        BotState start = board.toState();
+        field = start.getMyField();
+        shape = field.liftShape(start.getCurrentShape(), start.getShapeLocation());
+        generator = new PlacementGenerator(Board.WIDTH, Board.HEIGHT);
+        System.setProperty("autotetris.tablebits", "16");
+    }
+
+    @Benchmark
+    public int generatePlacements() {
+        shape.setDefaultLocation();
+        shape.setOrientation(0);
+        return generator.generate(field, shape);
+    }
+
+    @Benchmark
+    public List<MoveType> getMoves(Move move) {
+        return move.bot.getMoves(move.state, 10000);
+    }
+}
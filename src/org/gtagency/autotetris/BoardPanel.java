@@ -0,0 +1,158 @@
+package org.gtagency.autotetris;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
+
+/**
+ * Paints the board of the GUI from snapshots.
+ *
+ * The simulation thread publishes an immutable Snapshot after every move
+ * and goes on, the latest one waits in an AtomicReference. At most one
+ * update is queued on the Event Dispatch Thread at a time, so when the
+ * game runs faster than Swing the snapshots in between are skipped. An
+ * update compares the cells with the snapshot that is shown, draws only
+ * the cells that changed into a back buffer and repaints their bounds.
+ */
+public class BoardPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BORDER = 2; // black border around every cell
+
+    /**
+     * The colors of all cells, with the falling piece, at one moment of the game
+     */
+    public static final class Snapshot {
+        final int width;
+        final int height;
+        final Color[] cells; // row by row
+        final ShapeType next;
+        final boolean gameOver;
+
+        public Snapshot(Field board, Shape fallingPiece, ShapeType next, boolean gameOver) {
+            this.width = board.getWidth();
+            this.height = board.getHeight();
+            this.next = next;
+            this.gameOver = gameOver;
+            cells = new Color[width * height];
+            for(int y=0; y<height; y++){
+                for(int x=0; x<width; x++){
+                    cells[y * width + x] = board.getColor(x, y);
+                }
+            }
+            if(fallingPiece != null){
+                for(int i=0; i<4; i++){
+                    int x = fallingPiece.getBlockX(i);
+                    int y = fallingPiece.getBlockY(i);
+                    if(x >= 0 && x < width && y >= 0 && y < height)
+                        cells[y * width + x] = fallingPiece.getType().color();
+                }
+            }
+        }
+
+        public ShapeType getNext() {
+            return next;
+        }
+
+        public boolean isGameOver() {
+            return gameOver;
+        }
+    }
+
+    /**
+     * Gets every snapshot that is shown, on the Event Dispatch Thread
+     */
+    public interface Listener {
+        void shown(Snapshot snapshot);
+    }
+
+    private final AtomicReference<Snapshot> latest = new AtomicReference<Snapshot>();
+    private final AtomicBoolean updateQueued = new AtomicBoolean();
+    private final Runnable update = this::update;
+    private final Listener listener;
+
+    // only used on the Event Dispatch Thread
+    private Snapshot shown;
+    private BufferedImage buffer;
+    private int cellWidth;
+    private int cellHeight;
+
+    public BoardPanel(int width, int height, Listener listener) {
+        this.listener = listener;
+        setPreferredSize(new Dimension(width, height));
+        setOpaque(true);
+    }
+
+    /**
+     * Hands the snapshot to the Event Dispatch Thread, safe to call from any thread
+     */
+    public void publish(Snapshot snapshot) {
+        latest.set(snapshot);
+        if(updateQueued.compareAndSet(false, true)){
+            SwingUtilities.invokeLater(update);
+        }
+    }
+
+    private void update() {
+        updateQueued.set(false);
+        Snapshot next = latest.get();
+        if(next == null || next == shown)
+            return;
+        if(buffer == null || shown == null || shown.width != next.width || shown.height != next.height){
+            Dimension size = (getWidth() > 0) ? getSize() : getPreferredSize();
+            cellWidth = Math.max(1, size.width / next.width);
+            cellHeight = Math.max(1, size.height / next.height);
+            buffer = new BufferedImage(cellWidth * next.width, cellHeight * next.height, BufferedImage.TYPE_INT_RGB);
+            shown = null;
+        }
+        Graphics2D g = buffer.createGraphics();
+        Rectangle dirty = null;
+        for(int y=0; y<next.height; y++){
+            for(int x=0; x<next.width; x++){
+                Color c = next.cells[y * next.width + x];
+                if(shown != null && c.equals(shown.cells[y * next.width + x]))
+                    continue;
+                drawCell(g, x, y, c);
+                Rectangle cell = new Rectangle(x * cellWidth, y * cellHeight, cellWidth, cellHeight);
+                dirty = (dirty == null) ? cell : dirty.union(cell);
+            }
+        }
+        g.dispose();
+        shown = next;
+        if(dirty != null){
+            repaint(dirty);
+        }
+        if(listener != null){
+            listener.shown(next);
+        }
+    }
+
+    private void drawCell(Graphics g, int x, int y, Color c) {
+        int px = x * cellWidth;
+        int py = y * cellHeight;
+        g.setColor(Color.BLACK);
+        g.fillRect(px, py, cellWidth, cellHeight);
+        g.setColor(c);
+        g.fillRect(px + BORDER, py + BORDER, cellWidth - 2 * BORDER, cellHeight - 2 * BORDER);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if(buffer != null){
+            g.drawImage(buffer, 0, 0, null);
+        }
+    }
+}
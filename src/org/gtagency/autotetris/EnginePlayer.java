@@ -91,6 +91,10 @@ public class EnginePlayer
         return bot.getDump();
     }
 
+    public Transcript getTranscript(){
+        return bot.getTranscript();
+    }
+
     public String requestMove() 
     {
         long startTime = System.currentTimeMillis();
@@ -0,0 +1,299 @@
+package org.gtagency.autotetris;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.gtagency.autotetris.bot.BotStarter;
+import org.gtagency.autotetris.bot.BotState;
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
+import org.gtagency.autotetris.moves.MoveType;
+
+/**
+ * The game rules of TetrisGUI without Swing, for 1 player.
+ * The GUI runs its game on one of these, and with a BotStarter the engine
+ * plays a game itself by asking the bot for moves directly, without a child
+ * process or the text protocol. Pieces come from a seeded Random, so games
+ * can be replayed. T-spins are recognized the way the bot's search does.
+ */
+public class HeadlessEngine {
+
+    public static final int FIELD_WIDTH = 10;
+    public static final int FIELD_HEIGHT = 20;
+    public static final int TIME_PER_MOVE = 500;     // time in milliseconds that bots get per move
+    public static final int TIMEBANK_MAX = 10000;    // time bank each bot receives
+
+    private final Random r;
+    private final BotStarter bot;
+    private final BotState state;
+
+    private Field board;
+    private Shape nextPiece;
+    private Shape fallingPiece;
+    private int round;
+    private boolean gameOver;
+    private int piecesPlaced;
+    private int rowsCleared;
+    private int tSpins;
+    private int lastCleared;    // rows cleared by the last placed piece
+    private boolean lastTSpin;  // the last placed piece was a t-spin
+
+    // the last two moves that moved the falling piece, and where it was before the last one
+    private MoveType lastMove1;
+    private MoveType lastMove2;
+    private final Point lastLocation = new Point();
+
+    private long[] moveLatencies = new long[256]; // ns per getMoves call
+    private int moveCount;
+
+    /**
+     * An engine that is only driven by processMove
+     */
+    public HeadlessEngine(long seed) {
+        this(null, seed);
+    }
+
+    /**
+     * An engine that can play a game with the bot
+     */
+    public HeadlessEngine(BotStarter bot, long seed) {
+        this.r = new Random(seed);
+        this.bot = bot;
+        this.state = new BotState();
+        state.updateSettings("player_names", "player1");
+        state.updateSettings("your_bot", "player1");
+        state.updateSettings("timebank", Integer.toString(TIMEBANK_MAX));
+        state.updateSettings("time_per_move", Integer.toString(TIME_PER_MOVE));
+        state.updateSettings("field_width", Integer.toString(FIELD_WIDTH));
+        state.updateSettings("field_height", Integer.toString(FIELD_HEIGHT));
+        reset();
+    }
+
+    /**
+     * Starts a new game on an empty board
+     */
+    public void reset() {
+        board = new Field(FIELD_WIDTH, FIELD_HEIGHT);
+        round = -1;
+        gameOver = false;
+        piecesPlaced = 0;
+        rowsCleared = 0;
+        tSpins = 0;
+        lastCleared = 0;
+        lastTSpin = false;
+        moveCount = 0;
+        nextPiece = genRandomPiece();
+        newFallingPiece();
+    }
+
+    public Shape genRandomPiece() {
+        ShapeType temp = ShapeType.values()[r.nextInt(7)];
+        return new Shape(temp, temp.startPos());
+    }
+
+    public void newFallingPiece() {
+        fallingPiece = nextPiece;
+        nextPiece = genRandomPiece();
+        round++;
+        lastMove1 = null;
+        lastMove2 = null;
+        if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board)){
+            gameOver = true;
+        }
+    }
+
+    /**
+     * Moves the piece one down, or places it when it cannot move
+     * @return true if the piece moved
+     */
+    public boolean movePieceDown() {
+        fallingPiece.oneDown();
+        if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board)){
+            fallingPiece.oneUp();
+            if(fallingPiece.getY() + fallingPiece.getMinY() < 0){
+                gameOver = true; // the piece landed partly above the field
+                return false;
+            }
+            boolean tSpin = fallingPiece.checkTSpin(board, lastMove1, lastMove2, lastLocation);
+            fallingPiece.place(board);
+            int cleared = board.removeFullRows();
+            rowsCleared += cleared;
+            lastCleared = cleared;
+            lastTSpin = tSpin;
+            if(tSpin && cleared != 0){
+                tSpins++;
+            }
+            piecesPlaced++;
+            newFallingPiece();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does one move of the falling piece, moves that are not possible do nothing
+     */
+    public void processMove(MoveType move) {
+        if(gameOver)
+            return;
+        int x = fallingPiece.getX();
+        int y = fallingPiece.getY();
+        int orientation = fallingPiece.getOrientation();
+        int pieceRound = round;
+        switch(move){
+        case LEFT:
+            fallingPiece.oneLeft();
+            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
+                fallingPiece.oneRight();
+            break;
+        case RIGHT:
+            fallingPiece.oneRight();
+            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
+                fallingPiece.oneLeft();
+            break;
+        case DOWN:
+            movePieceDown();
+            break;
+        case TURNLEFT:
+            fallingPiece.turnLeft();
+            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
+                fallingPiece.turnRight();
+            break;
+        case TURNRIGHT:
+            fallingPiece.turnRight();
+            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
+                fallingPiece.turnLeft();
+            break;
+        case DROP:
+            while(movePieceDown());
+            break;
+        case SKIP:
+            newFallingPiece();
+            break;
+        }
+        if(round == pieceRound && (x != fallingPiece.getX() || y != fallingPiece.getY()
+                || orientation != fallingPiece.getOrientation())){
+            lastMove2 = lastMove1;
+            lastMove1 = move;
+            lastLocation.setLocation(x, y);
+        }
+    }
+
+    /**
+     * Asks the bot for moves until the falling piece is placed or skipped.
+     * A bot without moves gets its piece dropped.
+     * @return false once the game is over
+     */
+    public boolean playPiece() {
+        int pieceRound = round;
+        while(!gameOver && round == pieceRound){
+            BotState current = updateState();
+            long start = System.nanoTime();
+            ArrayList<MoveType> moves = bot.getMoves(current, TIMEBANK_MAX);
+            if(moveCount == moveLatencies.length){
+                moveLatencies = Arrays.copyOf(moveLatencies, moveCount * 2);
+            }
+            moveLatencies[moveCount++] = System.nanoTime() - start;
+            if(moves.isEmpty()){
+                processMove(MoveType.DROP);
+            }
+            for(int i=0; i<moves.size() && round == pieceRound; i++){
+                processMove(moves.get(i));
+            }
+        }
+        return !gameOver;
+    }
+
+    /**
+     * Plays until the game is over or maxPieces pieces are played
+     * @return the number of pieces played
+     */
+    public int play(int maxPieces) {
+        int played = 0;
+        while(played < maxPieces && playPiece()){
+            played++;
+        }
+        return played;
+    }
+
+    /**
+     * Fills in the state the way the engine's updates would, the bot gets
+     * its own copy of the board with the falling piece on it
+     */
+    private BotState updateState() {
+        state.setRound(round);
+        state.setCurrentShape(fallingPiece.getType());
+        state.setNextShape(nextPiece.getType());
+        state.setShapeLocation(fallingPiece.getLocation());
+        state.getSelf().setField(new Field(board, fallingPiece));
+        return state;
+    }
+
+    /**
+     * Pushes the board one row up and fills the bottom row, for the garbage
+     * and solid rows of a match. The game is over when that pushes cells out
+     * of the top or into the falling piece.
+     */
+    public void addRow(int block, int solid) {
+        if(board.addRow(block, solid) || fallingPiece.hasCollision(board)){
+            gameOver = true;
+        }
+    }
+
+    public void setBoard(Field board) {
+        this.board = board;
+    }
+
+    public Field getBoard() {
+        return board;
+    }
+
+    public Shape getFallingPiece() {
+        return fallingPiece;
+    }
+
+    public Shape getNextPiece() {
+        return nextPiece;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public int getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public int getRowsCleared() {
+        return rowsCleared;
+    }
+
+    public int getTSpins() {
+        return tSpins;
+    }
+
+    public int getLastCleared() {
+        return lastCleared;
+    }
+
+    /**
+     * @return true if the last placed piece was a t-spin, whether it cleared rows or not
+     */
+    public boolean isLastTSpin() {
+        return lastTSpin;
+    }
+
+    /**
+     * @return the time each getMoves call of this game took in ns
+     */
+    public long[] getMoveLatencies() {
+        return Arrays.copyOf(moveLatencies, moveCount);
+    }
+}
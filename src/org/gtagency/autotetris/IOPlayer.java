@@ -21,48 +21,88 @@ package org.gtagency.autotetris;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * IOPlayer class
  * 
- * Does the communication between the bot process and the engine
+ * Does the communication between the bot process and the engine.
+ * Responses are futures that complete on the gobbler's thread the moment
+ * the bot's line arrives, or with the timeout handling when a scheduled
+ * timeout fires first. The timeout handling, which may wait for the bot
+ * process to end, runs on a pool of its own, so one hung bot does not hold
+ * up the timeouts of the others. The bot's stderr goes into the dump as it comes in.
+ * The dump is a Transcript that keeps only the last messages.
  * 
  * @author Jackie Xu <jackie@starapple.nl>, Jim van Eeden <jim@starapple.nl>
  * modified by Mason Liu
  */
 public class IOPlayer implements Runnable {
 
+    // fires the response timeouts of all bots
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "response timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // handles the responses that timed out, killing a bot can take a while
+    private static final ExecutorService TIMED_OUT = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "timed out responses");
+        t.setDaemon(true);
+        return t;
+    });
+
     private Process process;
     private OutputStreamWriter inputStream;
     private InputStreamGobbler outputGobbler;
     private InputStreamGobbler errorGobbler;
-    private StringBuilder dump;
-    private int errorCounter;
-    private boolean finished;
+    private final Transcript dump;
+    private final AtomicInteger errorCounter = new AtomicInteger();
+    private volatile boolean finished;
     private final int maxErrors = 2;
 
-    public String response;
+    // guarded by this: the response that is waited for, and lines that came when none was
+    private CompletableFuture<String> pending;
+    private final ArrayDeque<String> unread = new ArrayDeque<String>();
 
     public IOPlayer(Process process) {
+        this(process, Transcript.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param dumpCapacity : the number of messages the dump keeps
+     */
+    public IOPlayer(Process process, int dumpCapacity) {
+        this(process, dumpCapacity, false);
+    }
+
+    /**
+     * @param keepOutput : also keep everything the bot writes, unbounded, for getStdout and getStderr
+     */
+    public IOPlayer(Process process, int dumpCapacity, boolean keepOutput) {
         this.inputStream = new OutputStreamWriter(process.getOutputStream());
-        this.outputGobbler = new InputStreamGobbler(process.getInputStream());
-        this.errorGobbler = new InputStreamGobbler(process.getErrorStream());
+        this.outputGobbler = new InputStreamGobbler(process.getInputStream(), keepOutput, this::onOutput);
+        this.errorGobbler = new InputStreamGobbler(process.getErrorStream(), keepOutput,
+                line -> addToDump("Bot Error Message: " + line + "\n"));
         this.process = process;
-        this.dump = new StringBuilder();
-        this.errorCounter = 0;
+        this.dump = new Transcript(dumpCapacity);
         this.finished = false;
     }
 
     // processes a line by reading it or writing it
     public void process(String line, String type) throws IOException {
         if (!this.finished) {
-            String temp = errorGobbler.readLine(10);
-            while(temp != null){
-                dump.append("Bot Error Message: " + temp + "\n");
-                temp = errorGobbler.readLine(10);
-            }
             switch (type) {
             case "input":
                 try {
@@ -81,52 +121,87 @@ public class IOPlayer implements Runnable {
 
     // waits for a response from the bot
     public String getResponse(long timeOut) {
-        long timeStart = System.currentTimeMillis();
-        String response;
-        String temp = errorGobbler.readLine(10);
-        while(temp != null){
-            dump.append("Bot Error Message: " + temp + "\n");
-            temp = errorGobbler.readLine(10);
-        }
+        return requestResponse(timeOut).join();
+    }
 
-        if (this.errorCounter > this.maxErrors) {
+    /**
+     * The next line of the bot, "" when it has no moves, timed out or timed out too often before.
+     * A bot that times out is killed.
+     * @param timeOut : ms the bot has to respond
+     */
+    public CompletableFuture<String> requestResponse(long timeOut) {
+        if (this.errorCounter.get() > this.maxErrors) {
             addToDump("Maximum number (" + this.maxErrors + ") of time-outs reached: skipping all moves.\n");
-            return "";
+            return CompletableFuture.completedFuture("");
         }
 
-        while(this.response == null) {
-            long timeNow = System.currentTimeMillis();
-            long timeElapsed = timeNow - timeStart;
-            this.response = outputGobbler.readLine(timeOut);
-            if(timeElapsed >= timeOut) {
-                addToDump("Response timed out (" + timeOut + "ms), let your bot return 'No moves' instead of nothing or make it faster.\n");
-                this.errorCounter++;
-                if (this.errorCounter > this.maxErrors) {
-                    finish();
-                    System.out.println("CLOSING");
-                }
-                addToDump("Output from your bot: null");
-                process.destroyForcibly();
+        CompletableFuture<String> line = new CompletableFuture<String>();
+        synchronized(this) {
+            String first = unread.poll();
+            if(first != null) {
+                line.complete(first);
+            } else {
+                pending = line;
+            }
+        }
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> line.completeExceptionally(new TimeoutException()),
+                timeOut, TimeUnit.MILLISECONDS);
+
+        line.whenComplete((response, error) -> {
+            timeout.cancel(false);
+            synchronized(this) {
+                if(pending == line)
+                    pending = null;
+            }
+        });
+        return line.thenApply(response -> {
+            if(response.equalsIgnoreCase("No moves")) {
+                addToDump("Output from your bot: \"No moves\"\n");
                 return "";
             }
+            addToDump("Output from your bot: \"" + response + "\"\n");
+            return response;
+        }).exceptionallyAsync(error -> timedOut(timeOut), TIMED_OUT);
+    }
 
-            try { Thread.sleep(2); } catch (InterruptedException e) {}
-        }
-        if(this.response.equalsIgnoreCase("No moves")) {
-            this.response = null;
-            addToDump("Output from your bot: \"No moves\"\n");
-            return "";
+    /**
+     * Counts the time out and kills the bot, off the timeout thread
+     * @return the empty response
+     */
+    private String timedOut(long timeOut) {
+        addToDump("Response timed out (" + timeOut + "ms), let your bot return 'No moves' instead of nothing or make it faster.\n");
+        if (this.errorCounter.incrementAndGet() > this.maxErrors) {
+            finish();
+            System.out.println("CLOSING");
         }
+        addToDump("Output from your bot: null");
+        process.destroyForcibly();
+        return "";
+    }
 
-        response = this.response;
-        this.response = null;
-
-        addToDump("Output from your bot: \"" + response + "\"\n");
-        return response;
+    /**
+     * Completes the response that is waited for with the line, or keeps the
+     * line for the next response
+     */
+    private void onOutput(String line) {
+        CompletableFuture<String> waiting;
+        synchronized(this) {
+            waiting = pending;
+            pending = null;
+            if(waiting == null) {
+                unread.add(line);
+                return;
+            }
+        }
+        if(!waiting.complete(line)) {
+            synchronized(this) {
+                unread.add(line); // the response timed out just before
+            }
+        }
     }
 
     // ends the bot process and it's communication
-    public void finish() {
+    public synchronized void finish() {
         if(this.finished)
             return;
 
@@ -152,6 +227,9 @@ public class IOPlayer implements Runnable {
         dump.append(dumpy);
     }
 
+    /**
+     * @return everything the bot wrote, empty unless the output is kept
+     */
     public String getStdout() {
         return this.outputGobbler.getData();
     }
@@ -164,6 +242,10 @@ public class IOPlayer implements Runnable {
         return dump.toString();
     }
 
+    public Transcript getTranscript() {
+        return dump;
+    }
+
     @Override
     // start communication with the bot
     public void run() {
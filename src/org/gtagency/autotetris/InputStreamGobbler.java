@@ -19,98 +19,154 @@ package org.gtagency.autotetris;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Reads the output of a bot process on its own thread and splits it into lines.
+ * The stream is read in chunks and every line is split off once, complete
+ * lines are handed to readLine through a bounded queue. When nobody reads
+ * the lines fast enough the oldest ones are dropped from the queue, so a bot
+ * that floods its output cannot block on a full pipe or use up the memory.
+ * Lines that were read are not kept, except in the transcript of getData
+ * when it is enabled. "\r\n", "\r" and "\n" all end a line.
+ * With a listener the lines are passed to it on the gobbler's thread as
+ * soon as they end, instead of going through the queue.
+ */
 public class InputStreamGobbler extends Thread 
 {
-    StringBuffer buffer;
-    int bufferIndex;
-    InputStream in;
-    Boolean stopping;
+    private static final int CHUNK_SIZE = 8192;
+    private static final int QUEUE_SIZE = 1024; // lines
 
-    String[] newLines = new String[] { "\r\n", "\r", "\n"};
+    private final InputStream in;
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+    private final StringBuilder transcript; // null when not kept
+    private final Consumer<String> listener; // null when the lines are queued
+    private volatile boolean stopping;
+    private volatile int dropped;
+
+    // the line that is being read, reused for every line
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean afterCarriageReturn; // a \n right after a \r does not end another line
 
     public InputStreamGobbler(InputStream inputStream)
     {
-        in = inputStream;
-        buffer = new StringBuffer();
-        bufferIndex = 0;
-        stopping = false; //for ending the threads
+        this(inputStream, true);
     }
 
-    public String readLine(long timeout)
+    /**
+     * @param keepTranscript : keep everything that was read for getData
+     */
+    public InputStreamGobbler(InputStream inputStream, boolean keepTranscript)
     {
-        long timeStart = System.currentTimeMillis();
-        synchronized(buffer) {
-            while(true)
-            {
-                int newlineType = 0, index = -1;
-                while(newlineType < newLines.length) //find the right line separator
-                {
-                    index = buffer.indexOf(newLines[newlineType], bufferIndex);
-                    if(index >= 0) { break; }
-                    ++newlineType;
-                }
+        this(inputStream, keepTranscript, null);
+    }
 
-                if(index < 0)
-                {
-                    long timeNow = System.currentTimeMillis();
-                    long timeElapsed = timeNow - timeStart;
-                    if(timeElapsed >= timeout)
-                        return null;
-                    try { buffer.wait(timeout - timeElapsed); } catch(InterruptedException e) {}
+    /**
+     * @param listener : gets every line instead of readLine, null to queue the lines
+     */
+    public InputStreamGobbler(InputStream inputStream, boolean keepTranscript, Consumer<String> listener)
+    {
+        in = inputStream;
+        transcript = keepTranscript ? new StringBuilder() : null;
+        this.listener = listener;
+        setDaemon(true);
+    }
 
-                }
-                else
-                {
-                    String line = (String) buffer.subSequence(bufferIndex, index);
-                    bufferIndex = index + newLines[newlineType].length();
-                    return line;
-                }
-            }
+    /**
+     * Waits for the next line
+     * @return the line, or null when no line came within the timeout
+     */
+    public String readLine(long timeout)
+    {
+        try {
+            return lines.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
     }
 
     @Override
     public void run()
     {
+        byte[] chunk = new byte[CHUNK_SIZE];
         try {
-            while(true)
+            while(!stopping)
             {
-                synchronized(stopping) {
-                    if(stopping)
-                        break;
-                }
-                int ch = in.read();
-                if(ch >= 0)
-                {
-                    synchronized(buffer)
-                    {
-                        buffer.append((char) ch);
-                        buffer.notify();
+                int read = in.read(chunk);
+                if(read < 0)
+                    break;
+                for(int i=0; i<read; i++) {
+                    byte b = chunk[i];
+                    if(b == '\n' || b == '\r') {
+                        if(!(b == '\n' && afterCarriageReturn))
+                            endLine();
+                        afterCarriageReturn = b == '\r';
+                        continue;
                     }
+                    afterCarriageReturn = false;
+                    if(lineLength == line.length)
+                        line = Arrays.copyOf(line, line.length * 2);
+                    line[lineLength++] = b;
                 }
             }
+            if(lineLength > 0)
+                endLine(); // the output ended without a line end
         }
         catch(IOException e) {
-            synchronized(stopping) {
-                if(stopping)
-                    return;
-            }
+            if(stopping)
+                return;
             e.printStackTrace();
         }   
     }
 
-    public void finish()
+    private void endLine()
     {
-        synchronized(stopping){
-            stopping = true;
+        String text = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+        lineLength = 0;
+        if(transcript != null) {
+            synchronized(transcript) {
+                transcript.append(text).append('\n');
+            }
+        }
+        if(listener != null) {
+            listener.accept(text);
+            return;
+        }
+        while(!lines.offer(text)) {
+            lines.poll();
+            dropped++;
         }
     }
 
+    public void finish()
+    {
+        stopping = true;
+    }
+
+    /**
+     * @return everything that was read, or an empty String when no transcript is kept
+     */
     public String getData()
     {
-        synchronized(buffer){
-            return buffer.toString();
+        if(transcript == null)
+            return "";
+        synchronized(transcript){
+            return transcript.toString();
         }
     }
+
+    /**
+     * @return the number of lines that were dropped because the queue was full
+     */
+    public int getDropped()
+    {
+        return dropped;
+    }
 }
@@ -0,0 +1,312 @@
+package org.gtagency.autotetris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.moves.MoveType;
+
+/**
+ * Plays Block Battle matches between two bot processes without the GUI.
+ *
+ * Both players get the same pieces, each on its own HeadlessEngine with
+ * the same seed. Every round both bots get the updates of both fields and
+ * are asked for their moves at the same time, each on its own thread, a
+ * virtual thread when the Java version has them, with its own time bank in
+ * its EnginePlayer. A bot's moves are applied to its field and the piece
+ * is dropped if the moves did not place it. Row points, combos and skips
+ * follow the competition's rules in the constants below, and every
+ * POINTS_PER_GARBAGE_ROW points push a garbage row into the opponent's
+ * field after the round. Every SOLID_ROW_ROUNDS rounds both fields get a
+ * solid row. A player loses when a piece cannot spawn or rows push cells
+ * out of the top, after the round limit the player with more points wins.
+ *
+ * Usage: MatchEngine [matches] [first seed] [max rounds] [bot command] [opponent command]
+ * The commands are split on whitespace and default to this classpath's
+ * BotStarter.
+ */
+public class MatchEngine {
+
+    // the competition's rules
+    public static final int[] ROW_POINTS = {0, 0, 3, 6, 10}; // by the number of rows cleared
+    public static final int T_SPIN_SINGLE_POINTS = 5;
+    public static final int T_SPIN_DOUBLE_POINTS = 10;
+    public static final int PERFECT_CLEAR_POINTS = 18;   // no blocks left after the clear, instead of the points above
+    public static final int POINTS_PER_GARBAGE_ROW = 4;  // the opponent gets a garbage row per this many points
+    public static final int SOLID_ROW_ROUNDS = 20;       // both fields get a solid row every this many rounds
+    // a combo adds its count to the points of every clear after the first in a row of clears,
+    // and a skip is earned with 4 rows or a t-spin double
+
+    private static final String[] NAMES = {"player1", "player2"};
+
+    private static class Side {
+        final String name;
+        final EnginePlayer player;
+        final HeadlessEngine engine;
+        int points;
+        int combo;
+        int skips;
+        int garbage; // rows that go to the opponent after this round
+
+        Side(String name, IOPlayer bot, long seed) {
+            this.name = name;
+            this.player = new EnginePlayer(name, bot, HeadlessEngine.TIMEBANK_MAX, HeadlessEngine.TIME_PER_MOVE);
+            this.engine = new HeadlessEngine(seed);
+            player.setTimeBank(HeadlessEngine.TIMEBANK_MAX);
+        }
+    }
+
+    private final Side[] sides = new Side[2];
+    private final Random garbage;
+    private final ExecutorService threads;
+    private int rounds;
+
+    /**
+     * @param bots : the two started bot processes, in player order
+     * @param seed : the seed of the pieces and the holes of the garbage rows
+     */
+    public MatchEngine(IOPlayer[] bots, long seed) {
+        for(int i=0; i<2; i++){
+            sides[i] = new Side(NAMES[i], bots[i], seed);
+        }
+        garbage = new Random(~seed);
+        threads = newThreadPerTaskExecutor();
+        for(Side side : sides){
+            side.player.sendInfo("settings player_names " + NAMES[0] + "," + NAMES[1]);
+            side.player.sendInfo("settings your_bot " + side.name);
+            side.player.sendInfo("settings timebank " + HeadlessEngine.TIMEBANK_MAX);
+            side.player.sendInfo("settings time_per_move " + HeadlessEngine.TIME_PER_MOVE);
+            side.player.sendInfo("settings field_width " + HeadlessEngine.FIELD_WIDTH);
+            side.player.sendInfo("settings field_height " + HeadlessEngine.FIELD_HEIGHT);
+        }
+    }
+
+    /**
+     * Virtual threads on Java 21 and later, found by reflection since the
+     * build targets 17, where a bot request gets a platform thread instead
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "bot request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Plays until a player lost or maxRounds rounds are played
+     * @return the index of the winner, -1 for a draw
+     */
+    public int play(int maxRounds) throws InterruptedException, ExecutionException {
+        while(rounds < maxRounds && playRound());
+        threads.shutdown();
+        boolean lost0 = sides[0].engine.isGameOver();
+        boolean lost1 = sides[1].engine.isGameOver();
+        if(lost0 != lost1)
+            return lost0 ? 1 : 0;
+        if(sides[0].points != sides[1].points)
+            return (sides[0].points > sides[1].points) ? 0 : 1;
+        return -1;
+    }
+
+    /**
+     * Plays one round: updates for both bots, their moves at the same time, then the garbage
+     * @return false once a player lost
+     */
+    public boolean playRound() throws InterruptedException, ExecutionException {
+        int round = sides[0].engine.getRound();
+        if(round > 0 && round % SOLID_ROW_ROUNDS == 0){
+            int solid = (1 << HeadlessEngine.FIELD_WIDTH) - 1;
+            for(Side side : sides){
+                side.engine.addRow(0, solid);
+            }
+        }
+        if(isOver())
+            return false;
+
+        for(Side side : sides){
+            sendUpdates(side.player, round);
+        }
+        List<Future<String>> responses = new ArrayList<Future<String>>(2);
+        for(Side side : sides){
+            responses.add(threads.submit(side.player::requestMove));
+        }
+        for(int i=0; i<2; i++){
+            apply(sides[i], sides[1 - i], responses.get(i).get());
+        }
+        for(int i=0; i<2; i++){
+            Side opponent = sides[1 - i];
+            for(; sides[i].garbage > 0; sides[i].garbage--){
+                int hole = garbage.nextInt(HeadlessEngine.FIELD_WIDTH);
+                opponent.engine.addRow(((1 << HeadlessEngine.FIELD_WIDTH) - 1) & ~(1 << hole), 0);
+            }
+        }
+        rounds++;
+        return !isOver();
+    }
+
+    private boolean isOver() {
+        return sides[0].engine.isGameOver() || sides[1].engine.isGameOver();
+    }
+
+    private void sendUpdates(EnginePlayer player, int round) {
+        Shape piece = sides[0].engine.getFallingPiece();
+        player.sendInfo("update game round " + round);
+        player.sendInfo("update game this_piece_type " + piece.getType());
+        player.sendInfo("update game next_piece_type " + sides[0].engine.getNextPiece().getType());
+        player.sendInfo("update game this_piece_position " + piece.getLocation().x + "," + piece.getLocation().y);
+        for(Side side : sides){
+            player.sendInfo("update " + side.name + " row_points " + side.points);
+            player.sendInfo("update " + side.name + " combo " + side.combo);
+            player.sendInfo("update " + side.name + " skips " + side.skips);
+            player.sendInfo("update " + side.name + " field " + fieldString(side.engine));
+        }
+    }
+
+    /**
+     * The board with the falling piece as SHAPE cells, in the protocol's format
+     */
+    private static String fieldString(HeadlessEngine engine) {
+        Field board = engine.getBoard();
+        Shape piece = engine.getFallingPiece();
+        StringBuilder field = new StringBuilder(board.getWidth() * board.getHeight() * 2);
+        for(int y=0; y<board.getHeight(); y++){
+            if(y != 0)
+                field.append(';');
+            for(int x=0; x<board.getWidth(); x++){
+                if(x != 0)
+                    field.append(',');
+                field.append(piece.isAt(x, y) ? 1 : board.getState(x, y).ordinal());
+            }
+        }
+        return field.toString();
+    }
+
+    /**
+     * Plays the bot's moves until its piece is placed, drops it if it is
+     * not, and scores the placement
+     */
+    private void apply(Side side, Side opponent, String response) {
+        HeadlessEngine engine = side.engine;
+        int pieceRound = engine.getRound();
+        boolean skipped = false;
+        for(String name : response.split(",")){
+            MoveType move = parseMove(name.trim());
+            if(move == null)
+                continue;
+            if(move == MoveType.SKIP){
+                if(side.skips == 0)
+                    continue;
+                side.skips--;
+                skipped = true;
+            }
+            engine.processMove(move);
+            if(engine.getRound() != pieceRound)
+                break;
+        }
+        if(engine.getRound() == pieceRound){
+            engine.processMove(MoveType.DROP);
+        }
+        if(skipped || engine.getRound() == pieceRound)
+            return;
+
+        int cleared = engine.getLastCleared();
+        if(cleared == 0){
+            side.combo = 0;
+            return;
+        }
+        boolean tSpin = engine.isLastTSpin();
+        int points;
+        if(engine.getBoard().getBlockCount() == 0){
+            points = PERFECT_CLEAR_POINTS;
+        } else if(tSpin && cleared == 1){
+            points = T_SPIN_SINGLE_POINTS;
+        } else if(tSpin && cleared == 2){
+            points = T_SPIN_DOUBLE_POINTS;
+        } else {
+            points = ROW_POINTS[cleared];
+        }
+        points += side.combo;
+        side.combo++;
+        if(cleared == 4 || (tSpin && cleared == 2)){
+            side.skips++;
+        }
+        side.garbage += (side.points + points) / POINTS_PER_GARBAGE_ROW - side.points / POINTS_PER_GARBAGE_ROW;
+        side.points += points;
+    }
+
+    private static MoveType parseMove(String name) {
+        for(MoveType move : MoveType.values()){
+            if(move.toString().equals(name))
+                return move;
+        }
+        return null;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getPoints(int player) {
+        return sides[player].points;
+    }
+
+    public long getTimeBank(int player) {
+        return sides[player].player.getTimeBank();
+    }
+
+    /**
+     * Splits a bot command on whitespace, there is no quoting
+     */
+    private static List<String> splitCommand(String command) {
+        return Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int matches = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+        long firstSeed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        int maxRounds = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+        // the class path can hold spaces, so the default command is not split
+        List<String> self = Arrays.asList("java", "-cp", System.getProperty("java.class.path"), "org.gtagency.autotetris.bot.BotStarter");
+        List<List<String>> commands = Arrays.asList((args.length > 3) ? splitCommand(args[3]) : self,
+                (args.length > 4) ? splitCommand(args[4]) : self);
+
+        System.out.println("seed\trounds\tpoints\twinner\tseconds");
+        int[] wins = new int[3];
+        long start = System.nanoTime();
+        long totalRounds = 0;
+        for(int m=0; m<matches; m++){
+            long seed = firstSeed + m;
+            IOPlayer[] bots = new IOPlayer[2];
+            for(int i=0; i<2; i++){
+                bots[i] = new IOPlayer(new ProcessBuilder(commands.get(i)).start());
+                bots[i].run();
+            }
+            long time = System.nanoTime();
+            MatchEngine match = new MatchEngine(bots, seed);
+            int winner = match.play(maxRounds);
+            for(IOPlayer bot : bots){
+                bot.finish();
+            }
+            wins[winner + 1]++;
+            totalRounds += match.getRounds();
+            System.out.printf("%d\t%d\t%d-%d\t%s\t%.1f%n", seed, match.getRounds(), match.getPoints(0), match.getPoints(1),
+                    (winner < 0) ? "draw" : NAMES[winner], (System.nanoTime() - time) / 1e9);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s %d, %s %d, draws %d%n", NAMES[0], wins[1], NAMES[1], wins[2], wins[0]);
+        System.out.printf("rounds/sec: %.1f%n", totalRounds / seconds);
+    }
+}
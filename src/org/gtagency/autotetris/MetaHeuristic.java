@@ -1,8 +1,157 @@
 package org.gtagency.autotetris;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gtagency.autotetris.bot.BotStarter;
+import org.gtagency.autotetris.bot.PrimaryUtility;
+import org.gtagency.autotetris.bot.WeightProfiles;
+
+/**
+ * Tunes the weights of PrimaryUtility with a genetic algorithm.
+ *
+ * Every individual of a generation plays the same seeded games on
+ * HeadlessEngines, so differences in fitness come from the weights and not
+ * from easier piece sequences. All games of a generation are submitted at
+ * once to a work stealing pool with a thread per core. A game hands back
+ * only its rows and pieces, so an engine and its bot can be collected as
+ * soon as the game ends, and the bots get a small transposition table.
+ * The fitness of an individual is the number of rows it cleared over all
+ * its games, a game that is lost early clears fewer rows. After every generation the best
+ * weights are written to the output file, which the bot loads with
+ * -Dautotetris.weights. When the output file already exists the first
+ * generation starts from the weights in it, so a run can be continued.
+ *
+ * Usage: MetaHeuristic [population] [generations] [games] [max pieces] [output] [seed]
+ */
 public class MetaHeuristic {
 
-    public static void main(String[] args) {
+    private static final int ELITES = 2;         // best individuals that are kept unchanged
+    private static final int TOURNAMENT = 3;     // individuals that compete for each parent
+    private static final double MUTATION_RATE = .2;
+    private static final double MUTATION_SIGMA = .2; // weights are multiplied by e^N(0, sigma), so they stay positive
+    private static final double MIN_DIVISOR = .01; // divisor weights are kept at least this, see PrimaryUtility.isDivisor
+    private static final int TABLE_BITS = 14;    // 256 KB of transposition table per game instead of 16 MB
+
+    private static class Individual {
+        final double[] weights;
+        long fitness;
+        long pieces;
+
+        Individual(double[] weights) {
+            this.weights = weights;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int populationSize = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int generations = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        int games = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        int maxPieces = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+        String output = (args.length > 4) ? args[4] : "weights.txt";
+        Random r = new Random((args.length > 5) ? Long.parseLong(args[5]) : 1);
+
+        double[] start = new File(output).exists() ? WeightProfiles.get(output, WeightProfiles.DEFAULT) : PrimaryUtility.getDefaultWeights();
+        new PrimaryUtility(start); // fails here on weights the evaluator cannot use, not in every game
+        Individual[] population = new Individual[populationSize];
+        population[0] = new Individual(start);
+        for(int i=1; i<populationSize; i++){
+            population[i] = new Individual(mutate(start, r));
+        }
+
+        ExecutorService pool = Executors.newWorkStealingPool();
+        System.out.println("gen\tbest rows\tmean rows\tbest pieces\tseconds");
+        for(int g=0; g<generations; g++){
+            long time = System.nanoTime();
+            long[] seeds = new long[games];
+            for(int k=0; k<games; k++){
+                seeds[k] = r.nextLong();
+            }
+            evaluate(pool, population, seeds, maxPieces);
+            Arrays.sort(population, (a, b) -> (a.fitness != b.fitness) ? Long.compare(b.fitness, a.fitness) : Long.compare(b.pieces, a.pieces));
+
+            long total = 0;
+            for(Individual individual : population){
+                total += individual.fitness;
+            }
+            WeightProfiles.save(population[0].weights, output);
+            System.out.printf("%d\t%d\t%.1f\t%d\t%.1f%n", g, population[0].fitness, (double) total / populationSize,
+                    population[0].pieces, (System.nanoTime() - time) / 1e9);
+
+            Individual[] next = new Individual[populationSize];
+            for(int i=0; i<populationSize; i++){
+                next[i] = (i < ELITES) ? new Individual(population[i].weights)
+                        : new Individual(mutate(crossover(select(population, r), select(population, r), r), r));
+            }
+            population = next;
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Plays every game of every individual, games with the same index use the same seed
+     */
+    private static void evaluate(ExecutorService pool, Individual[] population, long[] seeds, int maxPieces)
+            throws InterruptedException, ExecutionException {
+        // rows cleared and pieces placed per game
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        for(Individual individual : population){
+            for(long seed : seeds){
+                futures.add(pool.submit(() -> {
+                    BotStarter bot = new BotStarter(1, 2, new PrimaryUtility(individual.weights), false, TABLE_BITS);
+                    HeadlessEngine engine = new HeadlessEngine(bot, seed);
+                    engine.play(maxPieces);
+                    return new long[] {engine.getRowsCleared(), engine.getPiecesPlaced()};
+                }));
+            }
+        }
+        int f = 0;
+        for(Individual individual : population){
+            individual.fitness = 0;
+            individual.pieces = 0;
+            for(int k=0; k<seeds.length; k++){
+                long[] game = futures.get(f++).get();
+                individual.fitness += game[0];
+                individual.pieces += game[1];
+            }
+        }
+    }
+
+    private static Individual select(Individual[] population, Random r) {
+        Individual best = population[r.nextInt(population.length)];
+        for(int i=1; i<TOURNAMENT; i++){
+            Individual other = population[r.nextInt(population.length)];
+            if(other.fitness > best.fitness){
+                best = other;
+            }
+        }
+        return best;
+    }
+
+    private static double[] crossover(Individual a, Individual b, Random r) {
+        double[] child = new double[a.weights.length];
+        for(int i=0; i<child.length; i++){
+            child[i] = r.nextBoolean() ? a.weights[i] : b.weights[i];
+        }
+        return child;
+    }
 
+    private static double[] mutate(double[] weights, Random r) {
+        double[] child = weights.clone();
+        for(int i=0; i<child.length; i++){
+            if(r.nextDouble() < MUTATION_RATE){
+                // the evaluator's early exit needs weights of at least 0, and it divides by some of them
+                child[i] = Math.max(PrimaryUtility.isDivisor(i) ? MIN_DIVISOR : 0, child[i] * Math.exp(r.nextGaussian() * MUTATION_SIGMA));
+            }
+        }
+        return child;
     }
 }
@@ -0,0 +1,115 @@
+package org.gtagency.autotetris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gtagency.autotetris.bot.BotStarter;
+import org.gtagency.autotetris.bot.Utility;
+
+/**
+ * Plays seeded games of the bot on HeadlessEngines, one game per core at a
+ * time, and prints how strong and how fast the bot was. The same seeds give
+ * the same piece sequences, so two builds can be compared game by game.
+ * Search options like -Dautotetris.depth and the weights of
+ * -Dautotetris.weights and -Dautotetris.profile apply to every game, a
+ * search that depends on a deadline is not reproducible though.
+ *
+ * Usage: SelfPlayRunner [games] [first seed] [max pieces] [threads]
+ */
+public class SelfPlayRunner {
+
+    private static class GameResult {
+        long seed;
+        int pieces;
+        int rows;
+        int tSpins;
+        boolean survived;
+        long[] latencies;
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int games = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        long firstSeed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        final int maxPieces = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Utility utility = BotStarter.loadUtility();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>();
+        long start = System.nanoTime();
+        for(int g=0; g<games; g++){
+            final long seed = firstSeed + g;
+            futures.add(executor.submit(() -> play(seed, maxPieces, utility)));
+        }
+
+        System.out.println("seed\tpieces\trows\ttspins\tresult\tmean ms\tp99 ms");
+        long totalPieces = 0;
+        long totalRows = 0;
+        long totalTSpins = 0;
+        int survived = 0;
+        long[][] latencies = new long[games][];
+        for(int g=0; g<games; g++){
+            GameResult result = futures.get(g).get();
+            latencies[g] = result.latencies;
+            totalPieces += result.pieces;
+            totalRows += result.rows;
+            totalTSpins += result.tSpins;
+            survived += result.survived ? 1 : 0;
+            System.out.printf("%d\t%d\t%d\t%d\t%s\t%.2f\t%.2f%n", result.seed, result.pieces, result.rows, result.tSpins,
+                    result.survived ? "survived" : "lost", mean(result.latencies) / 1e6, percentile(result.latencies, .99) / 1e6);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        int calls = 0;
+        for(long[] l : latencies){
+            calls += l.length;
+        }
+        long[] all = new long[calls];
+        int offset = 0;
+        for(long[] l : latencies){
+            System.arraycopy(l, 0, all, offset, l.length);
+            offset += l.length;
+        }
+        System.out.printf("%d games on %d threads in %.1f s%n", games, threads, seconds);
+        System.out.printf("pieces/sec: %.1f%n", totalPieces / seconds);
+        System.out.printf("getMoves: mean %.2f ms, p99 %.2f ms over %d calls%n", mean(all) / 1e6, percentile(all, .99) / 1e6, calls);
+        System.out.printf("rows cleared: %d, t-spins: %d%n", totalRows, totalTSpins);
+        System.out.printf("mean pieces per game: %.1f, survived %d of %d%n", (double) totalPieces / games, survived, games);
+    }
+
+    private static GameResult play(long seed, int maxPieces, Utility utility) {
+        HeadlessEngine engine = new HeadlessEngine(new BotStarter(utility), seed);
+        GameResult result = new GameResult();
+        result.seed = seed;
+        result.pieces = engine.play(maxPieces);
+        result.rows = engine.getRowsCleared();
+        result.tSpins = engine.getTSpins();
+        result.survived = !engine.isGameOver();
+        result.latencies = engine.getMoveLatencies();
+        return result;
+    }
+
+    private static double mean(long[] values) {
+        if(values.length == 0)
+            return 0;
+        double sum = 0;
+        for(long value : values){
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static long percentile(long[] values, double p) {
+        if(values.length == 0)
+            return 0;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(p * sorted.length) - 1];
+    }
+}
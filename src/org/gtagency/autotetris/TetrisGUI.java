@@ -3,30 +3,25 @@ package org.gtagency.autotetris;
 
 import java.awt.BorderLayout;
 
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.GridLayout;
 import java.awt.Point;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
-import javax.swing.BorderFactory;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
-import javax.swing.Timer;
-import javax.swing.border.Border;
+import javax.swing.text.BadLocationException;
 
 import org.gtagency.autotetris.field.Field;
 import org.gtagency.autotetris.field.Shape;
-import org.gtagency.autotetris.field.ShapeType;
+import org.gtagency.autotetris.moves.MoveType;
 
 import java.lang.Thread;
 
@@ -35,32 +30,35 @@ public class TetrisGUI{
     private String playerName;
     private EnginePlayer player;
 
+    // only used on the simulation thread
     private ArrayList<String> moves;
-    private Timer timer;
-    private Field board;
-    private Shape nextPiece;
-    private Shape fallingPiece;
-    private Random r;
-    private int round;
-    private StringBuilder messages;
+    private HeadlessEngine engine; // the game itself
+    private int round; // last round sent to the bot
+
+    private Thread simulation;
+    private volatile boolean paused;
+    private volatile boolean fastForward;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>(); // run by the simulation
+    private Transcript messages;
+    private long dumpSeen;     // entries of the bot's dump that are shown
+    private long messagesSeen; // entries of messages that are shown
 
 
     private JFrame frame;
-    private JPanel boardPanel;
+    private BoardPanel boardPanel;
     private JPanel refPanel;
-    private JLabel[][] grid;
     private JTextArea dump;
     private JTextArea msgBox;
     private JScrollPane dumpScroll;
     private JScrollPane msgScroll;
     private JLabel nextPieceLabel;
-    private static final Border BORDER= BorderFactory.createLineBorder(Color.BLACK, 2);
 
 
-    private final long TIME_PER_MOVE = 500l;        // time in milliseconds that bots get per move
-    private final long TIMEBANK_MAX = 10000l;       // time bank each bot receives
-    private final long FIELD_WIDTH = 10l;
-    private final long FIELD_HEIGHT = 20l;
+    private static final long MOVE_DELAY = 500; // ms between the moves that are shown
+    private final long TIME_PER_MOVE = HeadlessEngine.TIME_PER_MOVE;  // time in milliseconds that bots get per move
+    private final long TIMEBANK_MAX = HeadlessEngine.TIMEBANK_MAX;    // time bank each bot receives
+    private final long FIELD_WIDTH = HeadlessEngine.FIELD_WIDTH;
+    private final long FIELD_HEIGHT = HeadlessEngine.FIELD_HEIGHT;
     private final Field testBoard = new Field(10, 20,
             "0,0,0,0,0,0,0,0,0,0;"+
                     "0,0,0,0,0,0,0,0,0,0;"+
@@ -84,19 +82,19 @@ public class TetrisGUI{
             "2,2,0,0,0,0,0,0,0,0");
     /**
      * An interface that simulates a Tetris game for 1 player. 
-     * Handles all IO with the bot and the game mechanics themselves
+     * Handles all IO with the bot, the game mechanics are in HeadlessEngine
      * To run, first change the string on line 363 to execute the bot class file
      * To display messages from the bot, use System.err.println
-     * Pause by pressing P, Fast forward with O
+     * Pause by pressing P, toggle fast forward with O
+     * The game runs on its own thread, the board is painted from its snapshots
      * Change the test board on line 65, Load test board by pressing L
      * @author Mason Liu
      * */
     public TetrisGUI()
     {
-        messages = new StringBuilder();
+        messages = new Transcript();
         this.playerName = "player1";
         round = -1;
-        r=new Random();
     }
 
 
@@ -144,22 +142,22 @@ public class TetrisGUI{
     public void finishSetUp(){
         moves= new ArrayList<String>();
         frame = new JFrame("Tetris");
-        boardPanel = new JPanel();
+        boardPanel = new BoardPanel(300, 550, this::shown);
         refPanel = new JPanel();
         nextPieceLabel = new JLabel();
         frame.setSize(700, 550);
         frame.setLayout(new BorderLayout());
-        boardPanel.setLayout(new GridLayout(20,10));
-        boardPanel.setPreferredSize(new Dimension(300,550));
         refPanel.setLayout(new BorderLayout());
         refPanel.setPreferredSize(new Dimension(300,550));
         frame.setResizable(false);
-        dump= new JTextArea(player.getDump());
+        dump= new JTextArea();
         dumpScroll = new JScrollPane(dump);
         dump.setEditable(false);
+        dump.setFocusable(false);
         dumpScroll.setPreferredSize(new Dimension(300, 500));
-        msgBox = new JTextArea(messages.toString());
+        msgBox = new JTextArea();
         msgBox.setEditable(false);
+        msgBox.setFocusable(false);
         msgScroll = new JScrollPane(msgBox);
         msgScroll.setPreferredSize(new Dimension(300,200));
         refPanel.add(dumpScroll, BorderLayout.CENTER);
@@ -174,187 +172,162 @@ public class TetrisGUI{
             @Override
             public void keyTyped(KeyEvent e) {
                 if(e.getKeyChar() == 'p'){
-                    if(timer.isRunning()){
-                        timer.stop();
-                        messages.append("Game Paused \n");
-                        msgBox.setText(messages.toString());
-                    } else {
-                        messages.append("Game Restarted \n");
-                        msgBox.setText(messages.toString());
-                        timer.start();
-                    }
+                    paused = !paused;
+                    messages.append(paused ? "Game Paused \n" : "Game Restarted \n");
+                    refreshText();
+                    LockSupport.unpark(simulation);
                 }
                 if(e.getKeyChar() == 'l'){
-                    board = testBoard;
-                    messages.append("Test Board Loaded \n");
-                    msgBox.setText(messages.toString());
-                    newFallingPiece();
-                    newFallingPiece();
-                    drawBoard();
+                    commands.add(() -> {
+                        engine.setBoard(testBoard);
+                        messages.append("Test Board Loaded \n");
+                        engine.newFallingPiece();
+                        engine.newFallingPiece();
+                        newFallingPiece();
+                        publish();
+                    });
+                    LockSupport.unpark(simulation);
                 }
                 if(e.getKeyChar() == 'o'){
-                    while(!moves.isEmpty()){
-                        processMove(moves.remove(0));
-                    }
-                    dump.setText(player.getDump());
-                    msgBox.setText(messages.toString());
-                    frame.requestFocus();
+                    fastForward = !fastForward;
+                    messages.append(fastForward ? "Fast Forward \n" : "Normal Speed \n");
+                    refreshText();
+                    LockSupport.unpark(simulation);
                 }
             }
             @Override public void keyPressed(KeyEvent e) {}
             @Override public void keyReleased(KeyEvent e) {}
         });
-        grid= new JLabel[20][10];
-        for(int i=0; i<grid.length; i++){
-            for(int j=0; j<grid[i].length; j++){
-                grid[i][j]= new JLabel();
-                grid[i][j].setBackground(Color.BLUE);
-                grid[i][j].setBorder(BORDER);
-                grid[i][j].setOpaque(true);
-                boardPanel.add(grid[i][j]);
+        frame.setVisible(true);
+        engine = new HeadlessEngine(System.nanoTime());
+        simulation = new Thread(this::simulate, "simulation");
+        simulation.setDaemon(true);
+        simulation.start();
+    }
+
+    /**
+     * Plays the game on the simulation thread, one move per MOVE_DELAY or
+     * as fast as the bot answers when fast forwarding. Key presses reach
+     * it through paused, fastForward and commands, and every move is
+     * published to the board panel as a snapshot.
+     */
+    private void simulate(){
+        newFallingPiece();
+        publish();
+        while(!engine.isGameOver()){
+            Runnable command;
+            while((command = commands.poll()) != null){
+                command.run();
+            }
+            if(paused){
+                LockSupport.park(this);
+                continue;
+            }
+            if(moves.size()==0){
+                requestMoves();
+            }
+            processMove(moves.remove(0));
+            publish();
+            if(!fastForward){
+                LockSupport.parkNanos(this, MOVE_DELAY * 1000000L);
             }
         }
-        timer= new Timer(500, new ActionListener(){
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if(moves.size()==0){
-                    player.sendInfo("update game this_piece_position " + fallingPiece.getLocation().x + "," + fallingPiece.getLocation().y);
-                    StringBuilder field = new StringBuilder();
-                    for(int i=0; i<board.getHeight(); i++){
-                        for(int j=0; j<board.getWidth(); j++){
-                            if (fallingPiece.isAt(new Point(j,i))){
-                                field.append(1);
-                            } else {
-                                field.append(board.getCell(j, i).getState().ordinal());
-                            }
-                            if(j != board.getWidth()-1)
-                                field.append(",");
-                        }
-                        if(i != board.getHeight()-1)
-                            field.append(";");
-                    }
-
-                    player.sendInfo("update player1 field " + field);
-                    messages.append("Requesting Moves\n");
-                    String input = player.requestMove();
-                    String[] inputs = input.split(",");
-                    for(String move: inputs)
-                        moves.add(move);
+    }
+
+    private void requestMoves(){
+        Field board = engine.getBoard();
+        Shape fallingPiece = engine.getFallingPiece();
+        player.sendInfo("update game this_piece_position " + fallingPiece.getLocation().x + "," + fallingPiece.getLocation().y);
+        StringBuilder field = new StringBuilder();
+        for(int i=0; i<board.getHeight(); i++){
+            for(int j=0; j<board.getWidth(); j++){
+                if (fallingPiece.isAt(new Point(j,i))){
+                    field.append(1);
+                } else {
+                    field.append(board.getCell(j, i).getState().ordinal());
                 }
-                processMove(moves.remove(0));
-                dump.setText(player.getDump());
-                msgBox.setText(messages.toString());
-                frame.requestFocus();
+                if(j != board.getWidth()-1)
+                    field.append(",");
             }
-        });
-        timer.setRepeats(true);
-        timer.start();
-        frame.setVisible(true);
-        board=new Field((int)FIELD_WIDTH, (int)FIELD_HEIGHT);
-        nextPiece=genRandomPiece();
-        newFallingPiece();
-        drawBoard();
-        redrawPiece();
+            if(i != board.getHeight()-1)
+                field.append(";");
+        }
+
+        player.sendInfo("update player1 field " + field);
+        messages.append("Requesting Moves\n");
+        String input = player.requestMove();
+        String[] inputs = input.split(",");
+        for(String move: inputs)
+            moves.add(move);
+    }
+
+    private void publish(){
+        boardPanel.publish(new BoardPanel.Snapshot(engine.getBoard(), engine.isGameOver() ? null : engine.getFallingPiece(),
+                engine.getNextPiece().getType(), engine.isGameOver()));
     }
 
-    public Shape genRandomPiece(){
-        ShapeType temp = ShapeType.values()[r.nextInt(7)];
-        return new Shape(temp, temp.startPos());
+    /**
+     * Shows the rest of a snapshot and the new text, on the Event Dispatch Thread
+     */
+    private void shown(BoardPanel.Snapshot snapshot){
+        nextPieceLabel.setText("Next Piece:  " + snapshot.getNext());
+        refreshText();
     }
 
+    /**
+     * Tells the bot about the piece the engine started
+     */
     public void newFallingPiece(){
         messages.append("New Piece\n");
-        fallingPiece=nextPiece;
-        nextPiece=genRandomPiece();
-        player.sendInfo("update game this_piece_type " + fallingPiece.type);
-        player.sendInfo("update game next_piece_type " + nextPiece.type);
-        player.sendInfo("update game round " + ++round);
-        nextPieceLabel.setText("Next Piece:  " + nextPiece.type);
-    }
-    public boolean movePieceDown(){
-        fallingPiece.oneDown();
-        if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board)){
-            fallingPiece.oneUp();
-            fallingPiece.place(board);
-            board.removeFullRows();
-            newFallingPiece();
-            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board)){
-                timer.stop();
-                messages.append("You Lose");
-                msgBox.setText(messages.toString());
-            }
-            drawBoard();
-            return false;
+        round = engine.getRound();
+        player.sendInfo("update game this_piece_type " + engine.getFallingPiece().type);
+        player.sendInfo("update game next_piece_type " + engine.getNextPiece().type);
+        player.sendInfo("update game round " + round);
+        if(engine.isGameOver()){
+            messages.append("You Lose");
         }
-        redrawPiece();
-        return true;
-    }
-    public void drawCell(int width, int length, Color c){
-        if(length >= 0 && width >=0)
-            grid[length][width].setBackground(c);
     }
 
-    public void drawBoard(){
-        for(int i=0; i<board.getWidth(); i++){
-            for(int j=0; j<board.getHeight(); j++){
-                drawCell(i,j,board.getCell(i, j).getColor());
-            }
-        }
+    /**
+     * Appends what was logged since the last refresh to the text areas
+     */
+    private void refreshText(){
+        dumpSeen = appendNew(dump, player.getTranscript(), dumpSeen);
+        messagesSeen = appendNew(msgBox, messages, messagesSeen);
     }
 
-    public void redrawPiece(){
-        for(int i=fallingPiece.getLocation().x; i< fallingPiece.getLocation().x + fallingPiece.getSize(); i++){
-            for(int j=fallingPiece.getLocation().y; j<fallingPiece.getLocation().y+ fallingPiece.getSize(); j++){
-                if(fallingPiece.isAt(new Point(i, j)))
-                    drawCell(i, j, fallingPiece.getType().color());
+    /**
+     * Appends the new entries of the transcript to the area and removes the
+     * oldest lines of the area when it has more than the transcript keeps,
+     * so a long game does not copy or hold its whole log
+     * @return the count of entries that are shown now
+     */
+    private static long appendNew(JTextArea area, Transcript transcript, long seen){
+        StringBuilder text = new StringBuilder();
+        seen = transcript.copySince(seen, text);
+        if(text.length() == 0)
+            return seen;
+        area.append(text.toString());
+        int excess = area.getLineCount() - transcript.getCapacity();
+        if(excess > 0){
+            try {
+                area.replaceRange(null, 0, area.getLineEndOffset(excess - 1));
+            } catch (BadLocationException e) {
+                area.setText(null);
             }
         }
+        return seen;
     }
 
     public void processMove(String s){
         messages.append(s + "\n");
-        switch(s){
-        case "left":
-            fallingPiece.oneLeft();
-            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
-                fallingPiece.oneRight();
-            drawBoard();
-            redrawPiece();
-            break;
-        case "right":
-            fallingPiece.oneRight();
-            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
-                fallingPiece.oneLeft();
-            drawBoard();
-            redrawPiece();
-            break;
-        case "down":
-            movePieceDown();
-            drawBoard();
-            redrawPiece();
-            break;
-        case "turnleft":
-            fallingPiece.turnLeft();
-            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
-                fallingPiece.turnRight();
-            drawBoard();
-            redrawPiece();
-            break;
-        case "turnright":
-            fallingPiece.turnRight();
-            if(fallingPiece.hasCollision(board) || fallingPiece.isOutOfBoundaries(board))
-                fallingPiece.turnLeft();
-            drawBoard();
-            redrawPiece();
-            break;
-        case "drop":
-            while(movePieceDown());
-            break;
-        case "skip":
+        for(MoveType move : MoveType.values()){
+            if(move.toString().equals(s)){
+                engine.processMove(move);
+            }
+        }
+        if(engine.getRound() != round){
             newFallingPiece();
-            drawBoard();
-            redrawPiece();
-            break;
         }
     }
 
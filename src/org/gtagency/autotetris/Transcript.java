@@ -0,0 +1,67 @@
+package org.gtagency.autotetris;
+
+/**
+ * A log that keeps only its last entries, in a ring of fixed size.
+ *
+ * Every entry gets a sequence number, so a view that remembers how many
+ * entries it has seen can copy just the new ones with copySince instead of
+ * the whole log. When a view falls so far behind that entries were
+ * overwritten, it gets a line saying how many it missed. The default size
+ * can be set with -Dautotetris.transcript.
+ */
+public class Transcript {
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("autotetris.transcript", 10000); // entries
+
+    private final String[] entries;
+    private long count; // entries appended so far, guarded by this
+
+    public Transcript() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Transcript(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Transcript capacity " + capacity);
+        entries = new String[capacity];
+    }
+
+    public synchronized void append(String entry) {
+        entries[(int) (count++ % entries.length)] = entry;
+    }
+
+    /**
+     * @return the number of entries appended so far, including the ones that were overwritten
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Appends the entries after the first seen ones to out
+     * @param seen : the count returned by the previous call, 0 the first time
+     * @return the count to pass next time
+     */
+    public synchronized long copySince(long seen, StringBuilder out) {
+        long first = Math.max(0, count - entries.length);
+        if(seen < first){
+            out.append("... ").append(first - seen).append(" entries dropped ...\n");
+            seen = first;
+        }
+        for(long i=seen; i<count; i++){
+            out.append(entries[(int) (i % entries.length)]);
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        copySince(0, out);
+        return out.toString();
+    }
+}
@@ -17,8 +17,10 @@
 
 package org.gtagency.autotetris.bot;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Scanner;
 
 import org.gtagency.autotetris.moves.MoveType;
 
@@ -27,60 +29,86 @@ import org.gtagency.autotetris.moves.MoveType;
  * 
  * Main class that will keep reading output from the engine.
  * Will either update the bot state or get actions.
+ * Input is read with a ProtocolReader and the moves are written from
+ * reused buffers, so the protocol does not allocate once the game runs.
  * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
 
 public class BotParser {
 
-    final Scanner scan;
+    // the protocol names of the moves, indexed by ordinal
+    private static final byte[][] MOVE_NAMES = new byte[MoveType.values().length][];
+    private static final byte[] NO_MOVES = "no_moves".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for(MoveType move : MoveType.values()) {
+            MOVE_NAMES[move.ordinal()] = move.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    final ProtocolReader reader;
 
     final BotStarter bot;
 
     BotState currentState;
 
+    private final PrintStream out = System.out;
+    private byte[] output = new byte[256];
+
     public BotParser(BotStarter bot)
     {
-        this.scan = new Scanner(System.in);
+        this.reader = new ProtocolReader(System.in);
         this.bot = bot;
         this.currentState = new BotState();
     }
 
     public void run()
     {
-        while(scan.hasNextLine())
-        {
-            String line = scan.nextLine().trim();
-            if(line.length() == 0) { continue; }
-            String[] parts = line.split(" ");
-            switch(parts[0]) {
-            case "settings":
-                this.currentState.updateSettings(parts[1], parts[2]);
-                break;
-            case "update":
-                this.currentState.updateState(parts[1], parts[2], parts[3]);
-                break;
-            case "action":
-                StringBuffer output = new StringBuffer();
-                String moveJoin = "";
-
-                ArrayList<MoveType> moves = bot.getMoves(currentState, Long.valueOf(parts[2]));
-
-                if(moves.size() > 0)
-                    for(MoveType move : moves) {
-                        output.append(moveJoin);
-                        output.append(move.toString());
-                        moveJoin = ",";
-                    }
-                else
-                    output.append("no_moves");
-
-                System.out.println(output);
-                break;
-            default:
-                System.err.printf("Unable to parse line '%s'\n", line);
+        try {
+            while(reader.next())
+            {
+                if(reader.is(0, "update") && reader.getTokenCount() >= 4) {
+                    long start = System.nanoTime();
+                    this.currentState.updateState(reader);
+                    bot.getStatistics().add(SearchStatistics.Phase.PARSE, System.nanoTime() - start);
+                } else if(reader.is(0, "action") && reader.getTokenCount() >= 3) {
+                    ArrayList<MoveType> moves = bot.getMoves(currentState, reader.getLong(2));
+                    writeMoves(moves);
+                } else if(reader.is(0, "settings") && reader.getTokenCount() >= 3) {
+                    this.currentState.updateSettings(reader.getString(1), reader.getString(2));
+                } else {
+                    System.err.printf("Unable to parse line '%s'\n", reader.getLine());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read input: " + e);
+        }
+        bot.printStatistics();
+    }
+
+    private void writeMoves(ArrayList<MoveType> moves) {
+        int length = 0;
+        if(moves.size() > 0) {
+            for(int i=0; i<moves.size(); i++) {
+                byte[] name = MOVE_NAMES[moves.get(i).ordinal()];
+                if(length + name.length + 2 > output.length) {
+                    byte[] larger = new byte[output.length * 2 + name.length];
+                    System.arraycopy(output, 0, larger, 0, length);
+                    output = larger;
+                }
+                if(i > 0)
+                    output[length++] = ',';
+                System.arraycopy(name, 0, output, length, name.length);
+                length += name.length;
             }
+        } else {
+            System.arraycopy(NO_MOVES, 0, output, 0, NO_MOVES.length);
+            length = NO_MOVES.length;
         }
+        output[length++] = '\n';
+        out.write(output, 0, length);
+        out.flush();
     }
 
 }
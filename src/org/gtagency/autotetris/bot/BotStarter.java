@@ -19,16 +19,21 @@ package org.gtagency.autotetris.bot;
 
 import java.awt.Point;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
+import org.gtagency.autotetris.bot.SearchStatistics.Counter;
+import org.gtagency.autotetris.bot.SearchStatistics.Phase;
 import org.gtagency.autotetris.moves.MoveType;
 import org.gtagency.autotetris.field.Field;
 import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
 
 /**
  * BotStarter class
@@ -40,7 +45,84 @@ import org.gtagency.autotetris.field.Shape;
 
 public class BotStarter {
 
-    public BotStarter() {}
+    private static final NodeComparator COMPARATOR = new NodeComparator();
+    private static final long SAFETY_MARGIN = 30; // ms left for the parser and the engine
+    private static final int FIRST_BEAM = 8; // first ply candidates that are searched deeper
+    private static final int BEAM = 4; // placements per shape that are searched deeper
+    private static final double LOST = 100000; // value of a ply without any placement
+
+    private final ForkJoinPool pool; // null when searching on the calling thread
+    private final int maxDepth;
+    private final int tableBits; // the transposition table holds 2^tableBits entries
+    private final Utility utility;
+    private final ThreadLocal<PlySearch> searches = new ThreadLocal<PlySearch>();
+    private PlacementGenerator firstPly;
+    private PlySearch search;
+    private TranspositionTable table; // evaluated positions, kept for the whole game
+    private final SearchStatistics stats = new SearchStatistics();
+
+    private final Ponderer ponderer; // null when not pondering
+    boolean pondering; // searches predicted states for a Ponderer, quietly
+    volatile boolean cancelled; // stops a pondering search that is no longer needed, checked between first ply candidates
+    Field successor; // the field after the last move's placement, if a Ponderer needs it
+
+    public BotStarter() {
+        this(loadUtility());
+    }
+
+    /**
+     * A bot with the search options of the system properties
+     */
+    public BotStarter(Utility utility) {
+        this(Integer.getInteger("autotetris.threads", 1), Integer.getInteger("autotetris.depth", 2), utility,
+                Boolean.getBoolean("autotetris.ponder"));
+    }
+
+    /**
+     * @param threads : number of threads the plies are searched with, 1 searches on the calling thread
+     * @param maxDepth : plies to search if time allows, plies after the next shape average over all shapes
+     */
+    public BotStarter(int threads, int maxDepth) {
+        this(threads, maxDepth, new PrimaryUtility());
+    }
+
+    /**
+     * @param utility : evaluates placements, used by all threads at once
+     */
+    public BotStarter(int threads, int maxDepth, Utility utility) {
+        this(threads, maxDepth, utility, false);
+    }
+
+    /**
+     * @param ponder : search the likely next states on a background thread while the engine is busy
+     */
+    public BotStarter(int threads, int maxDepth, Utility utility, boolean ponder) {
+        this(threads, maxDepth, utility, ponder, Integer.getInteger("autotetris.tablebits", 20));
+    }
+
+    /**
+     * @param tableBits : the transposition table holds 2^tableBits entries of 16 bytes, kept for the whole game
+     */
+    public BotStarter(int threads, int maxDepth, Utility utility, boolean ponder, int tableBits) {
+        this.pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        this.maxDepth = maxDepth;
+        this.tableBits = tableBits;
+        this.utility = utility;
+        this.ponderer = ponder ? new Ponderer(new BotStarter(1, maxDepth, utility, false, tableBits)) : null;
+    }
+
+    /**
+     * The PrimaryUtility with the weights of -Dautotetris.weights, a profile file or inline weights,
+     * and the profile -Dautotetris.profile in it
+     */
+    public static Utility loadUtility() {
+        try {
+            return new PrimaryUtility(WeightProfiles.get(System.getProperty("autotetris.weights"),
+                    System.getProperty("autotetris.profile", WeightProfiles.DEFAULT)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
     /**
      * Returns a random amount of random moves
@@ -49,97 +131,583 @@ public class BotStarter {
      * @return : a list of moves to execute
      */
     public ArrayList<MoveType> getMoves(BotState state, long timeout) {
+        long start = System.nanoTime();
+        ArrayList<MoveType> moves = (ponderer == null) ? think(state, timeout) : ponder(state, timeout);
+        stats.add(Phase.TOTAL, System.nanoTime() - start);
+        stats.endMove();
+        return moves;
+    }
+
+    /**
+     * Takes the moves from the ponderer if it predicted the state, and starts it on the next state
+     */
+    private ArrayList<MoveType> ponder(BotState state, long timeout) {
+        Ponderer.Answer answer = ponderer.take(state);
+        ArrayList<MoveType> moves;
+        Field next;
+        if(answer != null){
+            moves = new ArrayList<MoveType>(answer.moves);
+            next = answer.successor;
+        } else {
+            moves = think(state, timeout);
+            next = successor;
+        }
+        ponderer.start(next, state, timeout);
+        return moves;
+    }
+
+    /**
+     * Searches the moves for the state
+     */
+    ArrayList<MoveType> think(BotState state, long timeout) {
+        long start = System.nanoTime();
+        successor = null;
         ArrayList<MoveType> moves = new ArrayList<MoveType>();
-        Utility u = new PrimaryUtility();
+        Utility u = utility;
         Field field = state.getMyField();
         Shape tempShape = field.liftShape(state.getCurrentShape(), state.getShapeLocation());
-        Shape nextShape = new Shape(state.getNextShape(), new Point());
+        long time = System.nanoTime();
+        stats.add(Phase.LIFT, time - start);
         int baseLine = (int) u.value(field, null, null, state, Integer.MAX_VALUE);
 
-        ArrayList<Node> terminal = findTerminalStates(field, tempShape);
-        PriorityQueue<Node> sortedTerminal = new PriorityQueue<Node>(new NodeComparator());
-        for(Node i:terminal){
-            i.u = Integer.MAX_VALUE;
-            i.u2 = (int) u.value(i.f, i, null, state, Integer.MAX_VALUE);
-            nextShape.setDefaultLocation();
-            while(nextShape.getOrientation() != 0){
-                nextShape.turnRight();
-            }
-            ArrayList<Node> secondDepth = findTerminalStates(i.f, nextShape);
-            for(Node j: secondDepth){
-                j.u = (int) u.value(j.f, i, j, state, (sortedTerminal.isEmpty()) ? Integer.MAX_VALUE : sortedTerminal.peek().u);
-                if(j.u < i.u){
-                    i.u = j.u;
-                }
+        if(firstPly == null){
+            firstPly = new PlacementGenerator(field.getWidth(), field.getHeight());
+            table = new TranspositionTable(tableBits);
+        }
+        table.newSearch();
+        time = lap(Phase.EVALUATE, time);
+        int count = firstPly.generate(field, tempShape);
+        time = lap(Phase.FIRST_PLY, time);
+        stats.count(Counter.GENERATED, count);
+        stats.count(Counter.DUPLICATES, firstPly.getDuplicates());
+        stats.count(Counter.EVALUATED, 1);
+        int[] scores = new int[count];
+        int[] scores2 = new int[count];
+
+        // candidates that look good on their own go first, so the evaluator can stop early on the rest
+        if(search == null){
+            search = new PlySearch(field.getWidth(), field.getHeight(), utility, table, stats, maxDepth > 2, !pondering);
+        }
+        search.reset(field, state, scores, scores2);
+        int[] order = search.rank(firstPly, count);
+
+        Result best;
+        if(pool == null){
+            for(int k=0; k<count && !cancelled; k++){
+                search.search(firstPly, order[k]);
             }
-            sortedTerminal.add(i);
+            best = search.result();
+        } else {
+            int chunks = Math.min(count, pool.getParallelism());
+            best = pool.invoke(new SecondPlyTask(field, state, scores, scores2, order, chunks, 0, chunks));
         }
 
-        Node temp = sortedTerminal.poll();
-        System.err.println(temp.u);
-        if(state.getSelf().getSkips() > 0 && temp.u > baseLine && temp.f.getBlockHeight() > (2*temp.f.getHeight())/3){
+        Node temp = best.best;
+        if(temp == null || cancelled){
+            return moves; // a cancelled search is incomplete, the ponderer drops it
+        }
+        if(state.getSelf().getSkips() > 0 && temp.u > baseLine && best.bestBlockHeight > (2*field.getHeight())/3){
             moves.add(MoveType.SKIP); //TODO refine skip conditions
         } else {
-            while(temp.parent != null){
-                moves.add(0,temp.findMove(temp.parent));
-                temp = temp.parent;
+            int index = temp.index;
+            if(maxDepth > 2){
+                time = System.nanoTime();
+                index = deepen(field, state, scores, scores2, index, start + getBudget(state, timeout) * 1000000);
+                time = lap(Phase.DEEPEN, time);
+            } else {
+                time = System.nanoTime();
             }
+            firstPly.getPath(index, moves);
             moves.add(MoveType.DOWN);
+            lap(Phase.PATH, time);
+            if(ponderer != null || pondering){
+                successor = field.clone();
+                firstPly.setShape(index, tempShape);
+                successor.apply(tempShape);
+            }
         }
         return moves;
     }
 
+    /**
+     * Adds the time since the start to the phase
+     * @return the time now, the start of the next phase
+     */
+    private long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        stats.add(phase, now - start);
+        return now;
+    }
+
+    /**
+     * Time to spend on this move in ms: the time that is added to the timebank
+     * each move, but never more than half of what is left in it
+     */
+    private static long getBudget(BotState state, long timeout) {
+        long budget = timeout / 2;
+        if(state.getTimePerMove() > 0){
+            budget = Math.min(budget, state.getTimePerMove());
+        }
+        return budget - SAFETY_MARGIN;
+    }
 
-    private ArrayList<Node> findTerminalStates(Field field, Shape tempShape){
-        ArrayList<Node> terminal = new ArrayList<>();
-        HashSet<Node> traversed = new HashSet<Node>();
-        Node current = new Node(tempShape.getLocation().x, tempShape.getLocation().y, tempShape.getOrientation());
-        if(!current.isValid(field, tempShape)){
-            return terminal;
+    /**
+     * Searches the best first ply candidates one ply deeper at a time until
+     * maxDepth is reached or the deadline passes.
+     * @return : the best candidate of the deepest search that completed
+     */
+    private int deepen(Field field, BotState state, int[] scores, int[] scores2, int bestIndex, long deadline) {
+        // the best candidates by their two ply values, ties in candidate order
+        int[] beam = new int[Math.min(FIRST_BEAM, scores.length)];
+        boolean[] taken = new boolean[scores.length];
+        for(int b=0; b<beam.length; b++){
+            int best = -1;
+            for(int k=0; k<scores.length; k++){
+                if(!taken[k] && (best < 0 || scores[k] < scores[best] || (scores[k] == scores[best] && scores2[k] < scores2[best]))){
+                    best = k;
+                }
+            }
+            taken[best] = true;
+            beam[b] = best;
         }
-        traversed.add(current);
-        Queue<Node> queue = new LinkedList<Node>();
-        do{
-            if(current.isTerminal(field, tempShape)){
-                current.f = field.clone();
-                tempShape.setLocation(current.x, current.y);
-                while(tempShape.getOrientation() != current.o){
-                    tempShape.turnRight();
+
+        double[] deepScores = new double[beam.length];
+        for(int depth=3; depth<=maxDepth; depth++){
+            if(pool == null){
+                search.reset(field, state, scores, scores2);
+                for(int b=0; b<beam.length; b++){
+                    deepScores[b] = cancelled ? Double.NaN : search.deepen(firstPly, beam[b], depth, deadline);
                 }
-                try{
-                    boolean tspin = false;
-                    if(current.parent != null &&  current.parent.parent != null){
-                        tspin = tempShape.checkTSpin(current.f, current.findMove(current.parent), current.parent.findMove(current.parent.parent), new Point(current.parent.x, current.parent.y));
-                    }
-                    tempShape.place(current.f);
-                    current.cleared = current.f.removeFullRows();
-                    if(tspin && current.cleared != 0){
-                        current.tspin = true;
-                        System.err.println("Tspin-found!");
+            } else {
+                int chunks = Math.min(beam.length, pool.getParallelism());
+                pool.invoke(new DeepTask(field, state, beam, depth, deadline, deepScores, chunks, 0, chunks));
+            }
+
+            int best = -1;
+            for(int b=0; b<beam.length; b++){
+                if(Double.isNaN(deepScores[b])){
+                    return bestIndex; // out of time, this depth is not complete
+                }
+                int k = beam[b];
+                if(best < 0 || deepScores[b] < deepScores[best] || (deepScores[b] == deepScores[best]
+                        && (scores2[k] < scores2[beam[best]] || (scores2[k] == scores2[beam[best]] && k < beam[best])))){
+                    best = b;
+                }
+            }
+            bestIndex = beam[best];
+        }
+        return bestIndex;
+    }
+
+    private PlySearch getThreadSearch(Field field) {
+        PlySearch search = searches.get();
+        if(search == null){
+            search = new PlySearch(field.getWidth(), field.getHeight(), utility, table, stats, maxDepth > 2, !pondering);
+            searches.set(search);
+        }
+        return search;
+    }
+
+    /**
+     * Searches a range of chunks of the first ply candidates, splitting it
+     * until single chunks are left, about one per thread. Chunk c holds the
+     * candidates c, c + chunks, ... of the ranked order, so every chunk starts
+     * with good candidates and its best so far is the par of the rest, as in
+     * the sequential loop. A chunk is searched on one copy of the field,
+     * ties between the results go to the lowest candidate index, which is
+     * the same move the sequential search picks.
+     */
+    private class SecondPlyTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Field field;
+        private final BotState state;
+        private final int[] scores;
+        private final int[] scores2;
+        private final int[] order;
+        private final int chunks;
+        private final int from;
+        private final int to;
+
+        SecondPlyTask(Field field, BotState state, int[] scores, int[] scores2, int[] order, int chunks, int from, int to) {
+            this.field = field;
+            this.state = state;
+            this.scores = scores;
+            this.scores2 = scores2;
+            this.order = order;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if(to - from <= 1){
+                PlySearch search = getThreadSearch(field);
+                search.reset(field.clone(), state, scores, scores2);
+                for(int k=from; k<order.length && !cancelled; k+=chunks){
+                    search.search(firstPly, order[k]);
+                }
+                return search.result();
+            }
+            int middle = (from + to) >>> 1;
+            SecondPlyTask left = new SecondPlyTask(field, state, scores, scores2, order, chunks, from, middle);
+            SecondPlyTask right = new SecondPlyTask(field, state, scores, scores2, order, chunks, middle, to);
+            right.fork();
+            Result best = left.compute();
+            Result other = right.join();
+            if(best.best == null || (other.best != null && COMPARATOR.compare(other.best, best.best) < 0)){
+                best = other;
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Scores a range of chunks of the beam candidates with the deeper search,
+     * one chunk per thread, each on one copy of the field. Chunk c holds the
+     * candidates c, c + chunks, ... of the beam.
+     */
+    private class DeepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Field field;
+        private final BotState state;
+        private final int[] beam;
+        private final int depth;
+        private final long deadline;
+        private final double[] deepScores;
+        private final int chunks;
+        private final int from;
+        private final int to;
+
+        DeepTask(Field field, BotState state, int[] beam, int depth, long deadline, double[] deepScores, int chunks, int from, int to) {
+            this.field = field;
+            this.state = state;
+            this.beam = beam;
+            this.depth = depth;
+            this.deadline = deadline;
+            this.deepScores = deepScores;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= 1){
+                PlySearch search = getThreadSearch(field);
+                search.reset(field.clone(), state, null, null);
+                for(int b=from; b<beam.length; b+=chunks){
+                    deepScores[b] = cancelled ? Double.NaN : search.deepen(firstPly, beam[b], depth, deadline);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DeepTask(field, state, beam, depth, deadline, deepScores, chunks, from, middle),
+                    new DeepTask(field, state, beam, depth, deadline, deepScores, chunks, middle, to));
+        }
+    }
+
+    private static class Result {
+        final Node best;
+        final int bestBlockHeight;
+
+        Result(Node best, int bestBlockHeight) {
+            this.best = best;
+            this.bestBlockHeight = bestBlockHeight;
+        }
+    }
+
+    /**
+     * Scratch state for evaluating first ply candidates against every
+     * placement of the next shape, keeping the best candidate seen.
+     * All plies are walked depth first on one field with apply/undo.
+     */
+    private static class PlySearch {
+        private final Utility u;
+        private final TranspositionTable table;
+        private final SearchStatistics stats;
+        private final boolean exactScores; // every candidate needs its own value, not only the best
+        private final boolean report; // count the t-spins that are found
+        private final int width;
+        private final int height;
+        private final PlacementGenerator secondPly;
+        private Field field;
+        private BotState state;
+        private int[] scores;
+        private int[] scores2;
+        private Shape shape;
+        private Shape nextShape;
+        private Node i = new Node(0, 0, 0);
+        private final Node j = new Node(0, 0, 0);
+        Node best;
+        int bestBlockHeight;
+
+        // plies after the second, indexed by ply, with a shape per shape type
+        private PlacementGenerator[] deepPly = new PlacementGenerator[0];
+        private Shape[][] deepShapes;
+        private Node[] deepNodes;
+        private int[][] deepValues;
+        private long deadline;
+        private boolean timedOut;
+
+        // counts since they were last added to the statistics
+        private int generated;
+        private int duplicates;
+        private int evaluated;
+        private int tSpins;
+
+        PlySearch(int width, int height, Utility u, TranspositionTable table, SearchStatistics stats, boolean exactScores, boolean report) {
+            this.u = u;
+            this.report = report;
+            this.table = table;
+            this.stats = stats;
+            this.exactScores = exactScores;
+            this.width = width;
+            this.height = height;
+            this.secondPly = new PlacementGenerator(width, height);
+        }
+
+        void reset(Field field, BotState state, int[] scores, int[] scores2) {
+            this.field = field;
+            this.state = state;
+            this.scores = scores;
+            this.scores2 = scores2;
+            this.shape = new Shape(state.getCurrentShape(), new Point());
+            this.nextShape = new Shape(state.getNextShape(), new Point());
+            best = null;
+            bestBlockHeight = 0;
+        }
+
+        /**
+         * Hands out the best candidate, the scratch will not reuse its node
+         */
+        Result result() {
+            Result result = new Result(best, bestBlockHeight);
+            best = null;
+            return result;
+        }
+
+        /**
+         * Values every first ply candidate on its own into scores2
+         * @return : the candidates, best first, ties in candidate order
+         */
+        int[] rank(PlacementGenerator firstPly, int count) {
+            long start = System.nanoTime();
+            long[] keys = new long[count];
+            for(int first=0; first<count; first++){
+                firstPly.setShape(first, shape);
+                setPlacement(i, firstPly, first, field.apply(shape));
+                scores2[first] = evaluate(i, null, Integer.MAX_VALUE);
+                field.undo();
+                keys[first] = ((long) scores2[first] << 32) | first;
+            }
+            stats.add(Phase.EVALUATE, System.nanoTime() - start);
+            flush();
+            Arrays.sort(keys);
+            int[] order = new int[count];
+            for(int k=0; k<count; k++){
+                order[k] = (int) keys[k];
+            }
+            return order;
+        }
+
+        /**
+         * Values a first ply candidate by the best placement of the next
+         * shape, rank has to have run for this candidate.
+         */
+        void search(PlacementGenerator firstPly, int first) {
+            long start = System.nanoTime();
+            firstPly.setShape(first, shape);
+            setPlacement(i, firstPly, first, field.apply(shape));
+            countTSpin(i);
+            i.u = Integer.MAX_VALUE;
+            i.u2 = scores2[first];
+            int blockHeight = field.getMaxHeight();
+            nextShape.setDefaultLocation();
+            nextShape.setOrientation(0);
+            long generateStart = System.nanoTime();
+            int secondCount = secondPly.generate(field, nextShape);
+            long generateEnd = System.nanoTime();
+            generated += secondCount;
+            duplicates += secondPly.getDuplicates();
+            for(int second=0; second<secondCount; second++){
+                secondPly.setShape(second, nextShape);
+                setPlacement(j, secondPly, second, field.apply(nextShape));
+                countTSpin(j);
+                // a placement above par cannot change the outcome, its value may only be a bound
+                int par = (exactScores || best == null) ? i.u : Math.min(i.u, best.u);
+                j.u = evaluate(i, j, par);
+                field.undo();
+                if(j.u < i.u){
+                    i.u = j.u;
+                }
+            }
+            field.undo();
+            stats.add(Phase.SECOND_PLY, generateEnd - generateStart);
+            stats.add(Phase.EVALUATE, System.nanoTime() - start - (generateEnd - generateStart));
+            flush();
+            scores[first] = i.u;
+            if(best == null || COMPARATOR.compare(i, best) < 0){
+                Node swap = (best == null) ? new Node(0, 0, 0) : best;
+                best = i;
+                i = swap;
+                bestBlockHeight = blockHeight;
+            }
+        }
+
+        /**
+         * Looks the value of the field up in the table, the moves are part
+         * of the key as far as they change the value: rows cleared and t-spins
+         */
+        private int evaluate(Node firstMove, Node secondMove, int par) {
+            long key = field.getHash() ^ ((context(firstMove) * 10 + context(secondMove)) * 0x9E3779B97F4A7C15L);
+            int value = table.get(key, par);
+            if(value == TranspositionTable.MISS){
+                evaluated++;
+                value = (int) u.value(field, firstMove, secondMove, state, par);
+                table.put(key, value, par);
+            }
+            return value;
+        }
+
+        private static int context(Node move) {
+            return (move == null) ? 0 : (move.cleared << 1) | (move.tspin ? 1 : 0);
+        }
+
+        /**
+         * Values a first ply candidate by the best placement of the next
+         * shape, where the plies after it average over all shape types.
+         * Only the BEAM placements that look best by their own value are
+         * searched further.
+         * @return : the value, NaN if the deadline passed first
+         */
+        double deepen(PlacementGenerator firstPly, int first, int depth, long deadline) {
+            if(deepPly.length <= depth){
+                deepPly = new PlacementGenerator[depth + 1];
+                deepShapes = new Shape[depth + 1][ShapeType.NONE.ordinal()];
+                deepNodes = new Node[depth + 1];
+                deepValues = new int[depth + 1][];
+                for(int ply=2; ply<=depth; ply++){
+                    deepPly[ply] = (ply == 2) ? secondPly : new PlacementGenerator(width, height);
+                    for(int t=0; t<ShapeType.NONE.ordinal(); t++){
+                        deepShapes[ply][t] = new Shape(ShapeType.values()[t], new Point());
                     }
-                    terminal.add(current);
-                } catch(NullPointerException e){//Band-aid fix since shapes can exist off the board but not be placed there
-                    e.printStackTrace();
+                    deepNodes[ply] = new Node(0, 0, 0);
+                    deepValues[ply] = new int[4 * (width + 4) * (height + 4)];
                 }
+            }
+            this.deadline = deadline;
+            this.timedOut = false;
+
+            firstPly.setShape(first, shape);
+            setPlacement(i, firstPly, first, field.apply(shape));
+            double value = bestOf(nextShape, i, 2, depth);
+            field.undo();
+            flush();
+            return timedOut ? Double.NaN : value;
+        }
 
+        private double bestOf(Shape shape, Node previous, int ply, int depth) {
+            if(System.nanoTime() > deadline){
+                timedOut = true;
+                return 0;
             }
-            ArrayList<Node> branches = new ArrayList<Node>();
-            for(int i=-1; i<3; i+=2){
-                branches.add(new Node(current.x + i, current.y, current.o));
-                branches.add(new Node(current.x, current.y, (current.o+4+i)%4));
+            PlacementGenerator generator = deepPly[ply];
+            Node node = deepNodes[ply];
+            shape.setDefaultLocation();
+            shape.setOrientation(0);
+            int count = generator.generate(field, shape);
+            generated += count;
+            duplicates += generator.getDuplicates();
+            if(count == 0){
+                return LOST;
             }
-            branches.add(new Node(current.x, current.y + 1, current.o));
 
-            for(Node n: branches){
-                if(!traversed.contains(n) && n.isValid(field, tempShape)){
-                    traversed.add(n);
-                    n.parent = current;
-                    queue.add(n);
+            int[] values = deepValues[ply];
+            int best = Integer.MAX_VALUE;
+            for(int k=0; k<count; k++){
+                generator.setShape(k, shape);
+                setPlacement(node, generator, k, field.apply(shape));
+                values[k] = evaluate(previous, node, Integer.MAX_VALUE);
+                field.undo();
+                best = Math.min(best, values[k]);
+            }
+            if(ply == depth){
+                return best;
+            }
+
+            double bestValue = Double.MAX_VALUE;
+            for(int b=0; b<BEAM && b<count; b++){
+                // next best placement that was not searched yet, ties in generator order
+                int k = -1;
+                for(int m=0; m<count; m++){
+                    if(values[m] != Integer.MAX_VALUE && (k < 0 || values[m] < values[k])){
+                        k = m;
+                    }
+                }
+                values[k] = Integer.MAX_VALUE;
+                generator.setShape(k, shape);
+                setPlacement(node, generator, k, field.apply(shape));
+                double value = 0;
+                for(int t=0; t<ShapeType.NONE.ordinal() && !timedOut; t++){
+                    value += bestOf(deepShapes[ply + 1][t], node, ply + 1, depth);
+                }
+                field.undo();
+                if(timedOut){
+                    return 0;
                 }
+                bestValue = Math.min(bestValue, value / ShapeType.NONE.ordinal());
             }
-            current = queue.poll();
-        } while(current != null);
-        return terminal;
+            return bestValue;
+        }
+
+        private void countTSpin(Node node) {
+            if(node.tspin && report){
+                tSpins++;
+            }
+        }
+
+        /**
+         * Adds the counts to the statistics
+         */
+        private void flush() {
+            stats.count(Counter.GENERATED, generated);
+            stats.count(Counter.DUPLICATES, duplicates);
+            stats.count(Counter.EVALUATED, evaluated);
+            stats.count(Counter.TSPINS, tSpins);
+            generated = 0;
+            duplicates = 0;
+            evaluated = 0;
+            tSpins = 0;
+        }
+    }
+
+    public SearchStatistics getStatistics() {
+        return stats;
+    }
+
+    /**
+     * Prints where the time went and how the transposition table and pondering did over the game
+     */
+    public void printStatistics() {
+        System.err.println(stats);
+        if(table != null){
+            System.err.println(table);
+        }
+        if(ponderer != null){
+            System.err.println(ponderer);
+        }
+    }
+
+    private static void setPlacement(Node node, PlacementGenerator generator, int index, int cleared){
+        node.x = generator.getX(index);
+        node.y = generator.getY(index);
+        node.o = generator.getOrientation(index);
+        node.index = index;
+        node.cleared = cleared;
+        node.tspin = generator.isTSpin(index) && cleared != 0;
     }
 
 
@@ -157,7 +725,10 @@ public class BotStarter {
             if(o1.u != o2.u){
                 return o1.u - o2.u;
             }
-            return o1.u2 - o2.u2;
+            if(o1.u2 != o2.u2){
+                return o1.u2 - o2.u2;
+            }
+            return o1.index - o2.index;
         }
 
     }
@@ -169,9 +740,9 @@ public class BotStarter {
         public int u;
         public int u2;
 
-        public Field f;
         public int cleared;
         public boolean tspin;
+        public int index; // terminal index in the PlacementGenerator that found this node
         public Node parent;
 
         public Node(int x, int y, int o){
@@ -193,17 +764,13 @@ public class BotStarter {
         }
 
         public boolean isValid(Field f, Shape s){
-            while(s.getOrientation() != o){
-                s.turnRight();
-            }
+            s.setOrientation(o);
             s.setLocation(x, y);
             return !(s.hasCollision(f) || s.isOutOfBoundaries(f));
         }
 
         public boolean isTerminal(Field f, Shape s){//does NOT check if currently valid
-            while(s.getOrientation() != o){
-                s.turnRight();
-            }
+            s.setOrientation(o);
             s.setLocation(x, y+1);
             return (s.hasCollision(f) || s.isOutOfBoundaries(f));
         }
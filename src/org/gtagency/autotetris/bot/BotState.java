@@ -40,6 +40,8 @@ import org.gtagency.autotetris.moves.MoveType;
 
 public class BotState {
 
+    private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+
     private int round;
     private int timebank;
     private HashMap<String, Player> players;
@@ -53,6 +55,11 @@ public class BotState {
     private int FIELD_WIDTH;
     private int FIELD_HEIGHT;
 
+    // rows of the last field update, decoded before they are applied to a player's field
+    private int[] blockRows = new int[0];
+    private int[] solidRows = new int[0];
+    private int[] shapeRows = new int[0];
+
     public BotState() {
         this.round = 0;
         this.players = new HashMap<String, Player>();
@@ -120,6 +127,91 @@ public class BotState {
         }
     }
 
+    /**
+     * Same as updateState for an "update player key value" line of the reader,
+     * but without creating Strings, cells or other objects for the common keys
+     */
+    public void updateState(ProtocolReader line) {
+        Player player = getPlayer(line, 1);
+        if(line.is(2, "round")){
+            this.round = line.getInt(3);
+        } else if(line.is(2, "this_piece_type")){
+            this.currentShape = getShapeType(line, 3);
+        } else if(line.is(2, "next_piece_type")){
+            this.nextShape = getShapeType(line, 3);
+        } else if(line.is(2, "row_points")){
+            player.setPoints(line.getInt(3));
+        } else if(line.is(2, "combo")){
+            player.setCombo(line.getInt(3));
+        } else if(line.is(2, "field")){
+            if(blockRows.length != this.FIELD_HEIGHT){
+                blockRows = new int[this.FIELD_HEIGHT];
+                solidRows = new int[this.FIELD_HEIGHT];
+                shapeRows = new int[this.FIELD_HEIGHT];
+            }
+            if(!line.readField(3, this.FIELD_WIDTH, this.FIELD_HEIGHT, blockRows, solidRows, shapeRows)){
+                System.err.printf("Unable to parse field of %dx%d in '%s'\n", this.FIELD_WIDTH, this.FIELD_HEIGHT, line.getLine());
+                return;
+            }
+            updateField(player);
+        } else if(line.is(2, "this_piece_position")){
+            if(this.shapeLocation == null)
+                this.shapeLocation = new Point();
+            this.shapeLocation.setLocation((int) line.getLong(3, 0), (int) line.getLong(3, 1));
+        } else if(line.is(2, "skips")){
+            player.setSkips(line.getInt(3));
+        } else {
+            updateState(line.getString(1), line.getString(2), line.getString(3));
+        }
+    }
+
+    /**
+     * Applies the decoded rows to the player's field. Between two updates
+     * only a piece lands and a few rows move, so the previous field is kept
+     * and only the rows that differ are replaced, which also updates its
+     * column features and hash for just those rows.
+     */
+    private void updateField(Player player) {
+        Field field = player.getField();
+        if(field == null || field.getWidth() != this.FIELD_WIDTH || field.getHeight() != this.FIELD_HEIGHT){
+            field = new Field(this.FIELD_WIDTH, this.FIELD_HEIGHT);
+            player.setField(field);
+        }
+        field.setRows(blockRows, solidRows, shapeRows);
+    }
+
+    private Player getPlayer(ProtocolReader line, int token) {
+        for(Player player : this.players.values()){
+            if(line.is(token, player.getName()))
+                return player;
+        }
+        return null;
+    }
+
+    private static ShapeType getShapeType(ProtocolReader line, int token) {
+        for(ShapeType type : SHAPE_TYPES){
+            if(line.is(token, type.name()))
+                return type;
+        }
+        throw new IllegalArgumentException("No shape type " + line.getString(token));
+    }
+
+    public void setRound(int round) {
+        this.round = round;
+    }
+
+    public void setCurrentShape(ShapeType currentShape) {
+        this.currentShape = currentShape;
+    }
+
+    public void setNextShape(ShapeType nextShape) {
+        this.nextShape = nextShape;
+    }
+
+    public void setShapeLocation(Point shapeLocation) {
+        this.shapeLocation = shapeLocation;
+    }
+
     public Player getSelf() {
         return myBot;
     }
@@ -154,4 +246,12 @@ public class BotState {
     public int getRound() {
         return this.round;
     }
+
+    public int getTimePerMove() {
+        return this.TIME_PER_MOVE;
+    }
+
+    public int getMaxTimebank() {
+        return this.MAX_TIMEBANK;
+    }
 }
@@ -0,0 +1,314 @@
+package org.gtagency.autotetris.bot;
+
+import java.awt.Point;
+import java.util.List;
+
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.moves.MoveType;
+
+/**
+ * Finds every placement a shape can reach from its current position.
+ *
+ * States (x, y, orientation) are packed into ints and the search runs on
+ * arrays that are allocated once, so after the first call a search does
+ * not allocate. The search order is the same breadth first order the old
+ * Node based search used, so the terminals and their move paths are too.
+ *
+ * Most states are above the surface of the field, where a shape is only
+ * ever stopped by the tops of the columns below it. Before a search the
+ * lowest row a straight drop reaches is computed from the column tops for
+ * every orientation and x, in O(piece width) each. States at or above that
+ * row are valid and the one below it is not, without testing the cells;
+ * only states further down, under overhangs where tucks and t-spin slots
+ * are, get the full collision test. The breadth first order, and with it
+ * the terminals and paths, stays the same.
+ *
+ * Different orientations can cover the same cells, every placement of O
+ * four times and of I, S and Z twice. Such placements leave the same field
+ * behind, so only the first one the search finds is kept as a terminal.
+ * Terminals come out in the order of their path lengths, so that is one
+ * with the shortest path, and it has the lowest index of its duplicates,
+ * which the search prefers on ties anyway.
+ */
+public class PlacementGenerator {
+
+    // packed state: orientation << O_SHIFT | (y + Y_OFFSET) << Y_SHIFT | (x + X_OFFSET)
+    private static final int X_OFFSET = 3;
+    private static final int Y_OFFSET = 3;
+    private static final int Y_SHIFT = 5;
+    private static final int O_SHIFT = 11;
+    private static final int STATES = 4 << O_SHIFT;
+    private static final int NO_PARENT = -1;
+
+    private final long[] visited = new long[STATES / 64];
+    private final int[] parent = new int[STATES];
+    private final int[] queue = new int[STATES]; // ring buffer, STATES is a power of two
+    private final int[] terminals = new int[STATES];
+    private final boolean[] tspins = new boolean[STATES];
+    private final int[] footprints = new int[STATES * 5]; // per terminal: top row, then its 4 row masks
+    private final Point lastLocation = new Point();
+    private int terminalCount;
+    private int duplicates;
+
+    // lowest row a straight drop reaches by orientation and x + X_OFFSET, OUTSIDE where the shape is off the sides
+    private static final int OUTSIDE = Integer.MIN_VALUE / 2;
+    private final int[][] surfaces = new int[4][1 << Y_SHIFT];
+    private final int[] topRows = new int[4]; // highest row the shape can be at by orientation
+    private final int[] columnTops;            // first BLOCK or SOLID row by column, height if none
+    private final int[] bottoms = new int[4];  // lowest block by box column, scratch
+
+    public PlacementGenerator(int width, int height) {
+        if(width + X_OFFSET >= 1 << Y_SHIFT || height + Y_OFFSET >= 1 << (O_SHIFT - Y_SHIFT))
+            throw new IllegalArgumentException("Field of " + width + "x" + height + " is too large");
+        columnTops = new int[width];
+    }
+
+    /**
+     * Searches all placements of the shape starting from its current location
+     * and orientation. The shape is used as scratch space and is left at an
+     * arbitrary position afterwards.
+     * @return the number of terminal placements found
+     */
+    public int generate(Field field, Shape shape) {
+        for(int i=0; i < visited.length; i++) {
+            visited[i] = 0;
+        }
+        terminalCount = 0;
+        duplicates = 0;
+
+        int start = pack(shape.getX(), shape.getY(), shape.getOrientation());
+        computeSurfaces(field, shape);
+        if(!isValid(field, shape, start)) {
+            return 0;
+        }
+        visit(start);
+        parent[start] = NO_PARENT;
+
+        int head = 0;
+        int tail = 0;
+        int current = start;
+        do{
+            int x = unpackX(current);
+            int y = unpackY(current);
+            int o = unpackOrientation(current);
+            int down = pack(x, y + 1, o);
+            boolean canFall = isValid(field, shape, down);
+            if(!canFall) {
+                addTerminal(field, shape, current);
+            }
+
+            // same branch order as before: left, turn left, right, turn right, down
+            tail = branch(field, shape, current, pack(x - 1, y, o), tail);
+            tail = branch(field, shape, current, pack(x, y, (o + 3) % 4), tail);
+            tail = branch(field, shape, current, pack(x + 1, y, o), tail);
+            tail = branch(field, shape, current, pack(x, y, (o + 1) % 4), tail);
+            if(canFall && !isVisited(down)) {
+                visit(down);
+                parent[down] = current;
+                queue[tail++ & (STATES - 1)] = down;
+            }
+
+            current = (head != tail) ? queue[head++ & (STATES - 1)] : NO_PARENT;
+        } while(current != NO_PARENT);
+        return terminalCount;
+    }
+
+    private int branch(Field field, Shape shape, int from, int to, int tail) {
+        if(!isVisited(to) && isValid(field, shape, to)) {
+            visit(to);
+            parent[to] = from;
+            queue[tail++ & (STATES - 1)] = to;
+        }
+        return tail;
+    }
+
+    private void addTerminal(Field field, Shape shape, int state) {
+        moveTo(state, shape);
+        if(shape.getY() + shape.getMinY() < 0) {
+            return; // shapes can exist off the board but not be placed there
+        }
+        boolean tspin = false;
+        int p = parent[state];
+        if(p != NO_PARENT && parent[p] != NO_PARENT) {
+            lastLocation.setLocation(unpackX(p), unpackY(p));
+            tspin = shape.checkTSpin(field, findMove(p, state), findMove(parent[p], p), lastLocation);
+        }
+        // the cells of the placement, rows without blocks are 0
+        int f = terminalCount * 5;
+        footprints[f] = shape.getY() + shape.getMinY();
+        for(int r=0; r < 4; r++) {
+            int row = shape.getMinY() + r;
+            footprints[f + 1 + r] = (row <= shape.getMaxY()) ? shape.getFieldRowMask(row) : 0;
+        }
+        for(int t=0; t < terminalCount; t++) {
+            if(tspins[t] == tspin && sameFootprint(t * 5, f)) {
+                duplicates++;
+                return;
+            }
+        }
+        tspins[terminalCount] = tspin;
+        terminals[terminalCount++] = state;
+    }
+
+    private boolean sameFootprint(int a, int b) {
+        for(int i=0; i < 5; i++) {
+            if(footprints[a + i] != footprints[b + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fills surfaces and topRows for the shape's type on the field. The shape
+     * is moved to (0, 0) to read its block layout.
+     */
+    private void computeSurfaces(Field field, Shape shape) {
+        int width = field.getWidth();
+        int height = field.getHeight();
+        int open = (1 << width) - 1; // columns without a top yet
+        for(int y=0; y < height && open != 0; y++) {
+            int tops = (field.getBlockRow(y) | field.getSolidRow(y)) & open;
+            for(int m = tops; m != 0; m &= m - 1) {
+                columnTops[Integer.numberOfTrailingZeros(m)] = y;
+            }
+            open &= ~tops;
+        }
+        for(int m = open; m != 0; m &= m - 1) {
+            columnTops[Integer.numberOfTrailingZeros(m)] = height;
+        }
+
+        shape.setLocation(0, 0);
+        for(int o=0; o < 4; o++) {
+            shape.setOrientation(o);
+            int minX = shape.getMinX();
+            int maxX = shape.getMaxX();
+            for(int c=minX; c <= maxX; c++) {
+                bottoms[c] = -1;
+            }
+            for(int i=0; i < 4; i++) {
+                bottoms[shape.getBlockX(i)] = Math.max(bottoms[shape.getBlockX(i)], shape.getBlockY(i));
+            }
+            topRows[o] = -1 - shape.getMinY();
+            int[] surface = surfaces[o];
+            for(int x = -X_OFFSET; x + X_OFFSET < surface.length; x++) {
+                if(x + minX < 0 || x + maxX >= width) {
+                    surface[x + X_OFFSET] = OUTSIDE;
+                    continue;
+                }
+                int lowest = height - 1 - shape.getMaxY();
+                for(int c=minX; c <= maxX; c++) {
+                    lowest = Math.min(lowest, columnTops[x + c] - 1 - bottoms[c]);
+                }
+                surface[x + X_OFFSET] = lowest;
+            }
+        }
+    }
+
+    private boolean isValid(Field field, Shape shape, int state) {
+        int y = unpackY(state);
+        int o = unpackOrientation(state);
+        int surface = surfaces[o][unpackX(state) + X_OFFSET];
+        if(surface == OUTSIDE || y < topRows[o])
+            return false;
+        if(y <= surface)
+            return true; // every block is above the top of its column
+        if(y == surface + 1)
+            return false; // a block is on the top of its column, or the shape is at the bottom
+        moveTo(state, shape);
+        return !(shape.isOutOfBoundaries(field) || shape.hasCollision(field));
+    }
+
+    private boolean isVisited(int state) {
+        return (visited[state >>> 6] & (1L << state)) != 0;
+    }
+
+    private void visit(int state) {
+        visited[state >>> 6] |= 1L << state;
+    }
+
+    private static void moveTo(int state, Shape shape) {
+        shape.setLocation(unpackX(state), unpackY(state));
+        shape.setOrientation(unpackOrientation(state));
+    }
+
+    /**
+     * Finds the move that turns state from into state to
+     */
+    private static MoveType findMove(int from, int to) {
+        int o = unpackOrientation(to);
+        int fromO = unpackOrientation(from);
+        if((o+1)%4 == fromO)
+            return MoveType.TURNLEFT;
+        if((o+3)%4 == fromO)
+            return MoveType.TURNRIGHT;
+        int dx = unpackX(to) - unpackX(from);
+        if (dx == 1)
+            return MoveType.RIGHT;
+        if (dx == -1)
+            return MoveType.LEFT;
+        return MoveType.DOWN;
+    }
+
+    private static int pack(int x, int y, int o) {
+        return o << O_SHIFT | (y + Y_OFFSET) << Y_SHIFT | (x + X_OFFSET);
+    }
+
+    private static int unpackX(int state) {
+        return (state & ((1 << Y_SHIFT) - 1)) - X_OFFSET;
+    }
+
+    private static int unpackY(int state) {
+        return ((state >>> Y_SHIFT) & ((1 << (O_SHIFT - Y_SHIFT)) - 1)) - Y_OFFSET;
+    }
+
+    private static int unpackOrientation(int state) {
+        return state >>> O_SHIFT;
+    }
+
+    public int getCount() {
+        return terminalCount;
+    }
+
+    /**
+     * @return placements the last search dropped because an earlier terminal covers the same cells
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public int getX(int terminal) {
+        return unpackX(terminals[terminal]);
+    }
+
+    public int getY(int terminal) {
+        return unpackY(terminals[terminal]);
+    }
+
+    public int getOrientation(int terminal) {
+        return unpackOrientation(terminals[terminal]);
+    }
+
+    public boolean isTSpin(int terminal) {
+        return tspins[terminal];
+    }
+
+    /**
+     * Moves the shape to the location and orientation of a terminal
+     */
+    public void setShape(int terminal, Shape shape) {
+        moveTo(terminals[terminal], shape);
+    }
+
+    /**
+     * Appends the moves that lead from the start to a terminal
+     */
+    public void getPath(int terminal, List<MoveType> moves) {
+        int end = moves.size();
+        int state = terminals[terminal];
+        while(parent[state] != NO_PARENT) {
+            moves.add(end, findMove(parent[state], state));
+            state = parent[state];
+        }
+    }
+}
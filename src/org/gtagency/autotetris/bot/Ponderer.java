@@ -0,0 +1,153 @@
+package org.gtagency.autotetris.bot;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
+import org.gtagency.autotetris.moves.MoveType;
+
+/**
+ * Searches the next move while the engine and the opponent are busy.
+ *
+ * After a move the bot knows the field its placement leads to and the
+ * shape that falls next, only the shape after that is unknown. The
+ * ponderer searches that state on a background thread for each of the 7
+ * possible next shapes, with its own BotStarter. When the engine then asks
+ * for moves and the field, shapes, location and skips are the ones that
+ * were predicted, the answer is taken from the ponderer. Otherwise, for
+ * example when garbage rows came in, the pondering is cancelled and the
+ * bot searches as usual. A cancelled search stops at the next first ply
+ * candidate, so it does not compete with the real search for long.
+ */
+class Ponderer {
+
+    private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+
+    static class Answer {
+        final ArrayList<MoveType> moves;
+        final Field successor; // the field after the answer's placement, null for a skip
+
+        Answer(ArrayList<MoveType> moves, Field successor) {
+            this.moves = moves;
+            this.successor = successor;
+        }
+    }
+
+    private final BotStarter bot; // only used on the ponder thread
+    private final BotState state = new BotState(); // the predicted state, only used on the ponder thread
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ponder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // the prediction of the current pondering, guarded by this
+    private volatile int generation;
+    private ShapeType expectedShape;
+    private Point expectedLocation;
+    private long expectedHash;
+    private int expectedSkips;
+    private final Answer[] answers = new Answer[SHAPE_TYPES.length];
+
+    private int hits;
+    private int misses;
+
+    Ponderer(BotStarter bot) {
+        this.bot = bot;
+        bot.pondering = true;
+        state.updateSettings("player_names", "ponder");
+        state.updateSettings("your_bot", "ponder");
+    }
+
+    /**
+     * Starts pondering on the state after a move, cancelling the pondering before it
+     * @param successor : the field after the move's placement, null if there is nothing to predict
+     * @param state : the state the move was made in
+     */
+    synchronized void start(Field successor, BotState state, long timeout) {
+        cancel();
+        ShapeType type = state.getNextShape();
+        if(successor == null || type == null || type == ShapeType.NONE){
+            return;
+        }
+        Shape spawn = new Shape(type, type.startPos());
+        if(spawn.hasCollision(successor) || spawn.isOutOfBoundaries(successor)){
+            return; // the game is over
+        }
+        Field predicted = new Field(successor, spawn);
+        expectedShape = type;
+        expectedLocation = type.startPos();
+        expectedHash = predicted.getHash();
+        expectedSkips = state.getSelf().getSkips();
+        int current = generation;
+        int timePerMove = state.getTimePerMove();
+        thread.execute(() -> ponder(current, predicted, type, expectedLocation, expectedSkips, timePerMove, timeout));
+    }
+
+    /**
+     * Takes the answer for the state if it was predicted and its search is done,
+     * the pondering is cancelled either way
+     * @return the answer, or null if the state has to be searched
+     */
+    synchronized Answer take(BotState state) {
+        Answer answer = null;
+        ShapeType next = state.getNextShape();
+        if(expectedShape != null && state.getCurrentShape() == expectedShape && next != null && next != ShapeType.NONE
+                && expectedLocation.equals(state.getShapeLocation()) && state.getSelf().getSkips() == expectedSkips
+                && state.getMyField().getHash() == expectedHash){
+            answer = answers[next.ordinal()];
+        }
+        if(answer != null){
+            hits++;
+        } else {
+            misses++;
+        }
+        cancel();
+        return answer;
+    }
+
+    private void cancel() {
+        generation++;
+        bot.cancelled = true;
+        expectedShape = null;
+        for(int i=0; i<answers.length; i++){
+            answers[i] = null;
+        }
+    }
+
+    private void ponder(int generation, Field predicted, ShapeType type, Point location, int skips, int timePerMove, long timeout) {
+        synchronized(this){
+            if(generation != this.generation)
+                return;
+            bot.cancelled = false;
+        }
+        state.updateSettings("time_per_move", Integer.toString(timePerMove));
+        state.setCurrentShape(type);
+        state.setShapeLocation(location);
+        state.getSelf().setSkips(skips);
+        for(ShapeType next : SHAPE_TYPES){
+            if(next == ShapeType.NONE)
+                continue;
+            if(generation != this.generation)
+                return;
+            state.setNextShape(next);
+            state.getSelf().setField(predicted.clone());
+            ArrayList<MoveType> moves = bot.think(state, timeout);
+            synchronized(this){
+                if(generation != this.generation || bot.cancelled)
+                    return; // the search stopped part way, its moves are not an answer
+                answers[next.ordinal()] = new Answer(moves, bot.successor);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        int moves = hits + misses;
+        return String.format("pondering: %d of %d moves answered (%.1f%%)", hits, moves, (moves == 0) ? 0 : 100.0 * hits / moves);
+    }
+}
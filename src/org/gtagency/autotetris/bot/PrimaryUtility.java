@@ -1,103 +1,270 @@
 package org.gtagency.autotetris.bot;
 
-import java.util.PriorityQueue;
-
 import org.gtagency.autotetris.field.Field;
 import org.gtagency.autotetris.bot.BotStarter.Node;
-import org.gtagency.autotetris.field.Cell;
 
-public class PrimaryUtility implements Utility {//TODO GA, field height changes?, change clear desirabilty?, cell-by-cell tspin check, contour
+public class PrimaryUtility implements Utility {//TODO field height changes?, change clear desirabilty?, cell-by-cell tspin check, contour
+
+    // indices into the weight vector
+    public static final int TRANSITION = 0;
+    public static final int SIDED_HOLE = 1;
+    public static final int HOLE = 2;
+    public static final int COVER = 3;
+    public static final int COVER_DECAY = 4;
+    public static final int NEIGHBOR = 5; // scale of all cell neighbor utilities
+    public static final int EXTREME_HEIGHT = 6;
+    public static final int EXTREME_HEIGHT_LINEAR = 7;
+    public static final int PERFECT_CLEAR = 8;
+    public static final int SIDE_STACKING = 9;
+    public static final int HEIGHT_DIFFERENCE = 10;
+    public static final int ASYMMETRY_DIVISOR = 11;
+    public static final int MAX_MIN_DIFFERENCE = 12;
+    public static final int MAX_MIN_ALLOWED = 13;
+    public static final int DOWNSTACK_HOLES = 14;
+    public static final int ONE_CLEARED = 15;
+    public static final int ONE_CLEARED_BIAS = 16;
+    public static final int TWO_CLEARED = 17;
+    public static final int THREE_CLEARED = 18;
+    public static final int THREE_CLEARED_BIAS = 19;
+    public static final int FOUR_CLEARED = 20;
+    public static final int ONE_SPIN = 21;
+    public static final int TWO_SPIN = 22;
+
+    public static final String[] WEIGHT_NAMES = {
+        "transition", "sided_hole", "hole", "cover", "cover_decay", "neighbor",
+        "extreme_height", "extreme_height_linear", "perfect_clear", "side_stacking",
+        "height_difference", "asymmetry_divisor", "max_min_difference", "max_min_allowed",
+        "downstack_holes", "one_cleared", "one_cleared_bias", "two_cleared",
+        "three_cleared", "three_cleared_bias", "four_cleared", "one_spin", "two_spin"
+    };
+
+    private static final double[] DEFAULT_WEIGHTS = {
+        1, 8, 10, 20, .75, 2,
+        200, 120, 700, 8,
+        2, 3, 1, 5,
+        5, 24, .6, 24,
+        35, .6, 65, 60, 90
+    };
+
+    private static final int MAX_DIFFERENCE = 32; // rows are int masks, so no height difference is larger
+    private static final int FIXED_SHIFT = 8; // the cell neighbor utilities are summed as ints in 1/256ths
+
+    private final double[] w;
+
+    // the weights that are used for every evaluation, copied out of w
+    private final int transition; // fixed point
+    private final int sidedHole; // fixed point
+    private final int hole; // fixed point
+    private final int neighbor; // fixed point
+    private final double extremeHeight;
+    private final double extremeHeightLinear;
+    private final double perfectClear;
+    private final double sideStacking;
+    private final double downstackHoles;
+    private final double oneCleared;
+    private final double oneClearedBias;
+    private final double twoCleared;
+    private final double threeCleared;
+    private final double threeClearedBias;
+    private final double fourCleared;
+    private final double oneSpin;
+    private final double twoSpin;
+
+    // penalty for k filled blocks stacked over an empty block, sum of cover * decay^(i-1) truncated per step, fixed point
+    private final int[] coverPenalty = new int[MAX_DIFFERENCE + 1];
+    // penalties by the difference of two column heights
+    private final double[] neighborPenalty = new double[MAX_DIFFERENCE + 1];
+    private final double[] asymmetryPenalty = new double[MAX_DIFFERENCE + 1];
+    private final int[] maxMinPenalty = new int[MAX_DIFFERENCE + 1];
+
+    public PrimaryUtility() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * @param weights : one weight per entry of WEIGHT_NAMES, all of them at least 0, which
+     * the early exit of value relies on, and the divisors greater than 0
+     */
+    public PrimaryUtility(double[] weights) {
+        if(weights.length != DEFAULT_WEIGHTS.length)
+            throw new IllegalArgumentException("Expected " + DEFAULT_WEIGHTS.length + " weights, got " + weights.length);
+        for(int i=0; i<weights.length; i++){
+            String error = checkWeight(i, weights[i]);
+            if(error != null)
+                throw new IllegalArgumentException(error);
+        }
+        this.w = weights.clone();
+        transition = toFixed(w[TRANSITION]);
+        sidedHole = toFixed(w[SIDED_HOLE]);
+        hole = toFixed(w[HOLE]);
+        neighbor = toFixed(w[NEIGHBOR]);
+        extremeHeight = w[EXTREME_HEIGHT];
+        extremeHeightLinear = w[EXTREME_HEIGHT_LINEAR];
+        perfectClear = w[PERFECT_CLEAR];
+        sideStacking = w[SIDE_STACKING];
+        downstackHoles = w[DOWNSTACK_HOLES];
+        oneCleared = w[ONE_CLEARED];
+        oneClearedBias = w[ONE_CLEARED_BIAS];
+        twoCleared = w[TWO_CLEARED];
+        threeCleared = w[THREE_CLEARED];
+        threeClearedBias = w[THREE_CLEARED_BIAS];
+        fourCleared = w[FOUR_CLEARED];
+        oneSpin = w[ONE_SPIN];
+        twoSpin = w[TWO_SPIN];
+
+        for(int k=1, sum=0; k<coverPenalty.length; k++){
+            sum += (int) (w[COVER] * Math.pow(w[COVER_DECAY],k-1));
+            coverPenalty[k] = sum << FIXED_SHIFT;
+        }
+        // the same expressions value() used to compute for every pair of columns
+        for(int d=0; d<=MAX_DIFFERENCE; d++){
+            neighborPenalty[d] = w[HEIGHT_DIFFERENCE]*Math.pow(Math.max(d-1, 0),2);
+            asymmetryPenalty[d] = Math.pow(Math.max(d-1, 0),2)/w[ASYMMETRY_DIVISOR];
+            maxMinPenalty[d] = (int) (w[MAX_MIN_DIFFERENCE] * Math.max(d - w[MAX_MIN_ALLOWED], 0));
+        }
+    }
+
+    /**
+     * Weights the evaluator divides by, they have to be greater than 0
+     */
+    public static boolean isDivisor(int index) {
+        return index == ASYMMETRY_DIVISOR || index == DOWNSTACK_HOLES;
+    }
+
+    /**
+     * @return why the value cannot be the weight at the index, or null if it can
+     */
+    public static String checkWeight(int index, double value) {
+        if(Double.isNaN(value) || Double.isInfinite(value))
+            return "Weight " + WEIGHT_NAMES[index] + " must be finite, got " + value;
+        if(isDivisor(index) && value <= 0)
+            return "Weight " + WEIGHT_NAMES[index] + " is a divisor and must be greater than 0, got " + value;
+        if(value < 0)
+            return "Weight " + WEIGHT_NAMES[index] + " must be at least 0, got " + value;
+        return null;
+    }
+
+    private static int toFixed(double weight) {
+        return (int) Math.round(weight * (1 << FIXED_SHIFT));
+    }
+
+    public static double[] getDefaultWeights() {
+        return DEFAULT_WEIGHTS.clone();
+    }
+
+    /**
+     * @return a copy of the weights this utility evaluates with
+     */
+    public double[] getWeights() {
+        return w.clone();
+    }
 
     public double value(Field field, Node firstMove, Node secondMove, BotState state, int par) {
         /////////////////////////////////////
         //cell neighbor utilities
 
-        Cell[] neighbors = new Cell[4];
-        int h1 = 0;
-        int totalBlocks = 0;
-        double holes = 0;
+        int width = field.getWidth();
+        int height = field.getHeight();
+        int fullColumn = (int) ((1L << height) - 1);
+        int totalBlocks = field.getBlockCount();
+        int sidedHoles = field.getSidedHoles();
+        int holeCount = field.getHoles();
+        double holes = .5 * (sidedHoles + holeCount);
         double colWeight = 0;
-        int maxHeight = field.getHeight();
-        int[] localMaxHeights = new int[field.getWidth()];
-
-        for(int i=0; i<field.getWidth(); i++){
-            int localMaxHeight = field.getHeight();
-            for (int j=0; j<field.getHeight(); j++){
-                Cell c = field.getCell(i,j);
-                if(!c.isEmpty()){
-                    if(c.isBlock()){
-                        totalBlocks++;
-                        colWeight += Math.pow((field.getWidth()/2 - Math.abs(field.getWidth()/2 - i)),2)/2;
-                    }
-                    // Higher is closer to 0
-                    if (j < localMaxHeight) {
-                        localMaxHeight = j;
-                    }
-
-                    neighbors[0]=field.getCell(i-1,j);
-                    neighbors[1]=field.getCell(i+1,j);
-                    neighbors[2]=field.getCell(i,j+1);
-                    neighbors[3]=field.getCell(i,j-1);
-
-                    for (Cell n: neighbors){
-                        if (n!= null && n.isEmpty()) {
-                            h1++; //penalty for high arclen
-                        }
-                    }
-                } else {
-                    Cell n;
-                    Cell l;
-                    Cell r;
-                    int k = 0;
-
-                    if (j > localMaxHeight){
-                        l = field.getCell(i-1, j);
-                        r = field.getCell(i+1, j);
-                        if((l == null || !l.isEmpty()) && (r == null || !r.isEmpty())){
-                            h1+=8; //extra penalty if surrounded on sides
-                            holes += .5;
-                        }
-                        h1+= 10; //for multiple empty blocks in same col
-                        holes += .5;
-                    }
-
-                    do{
-                        k++;
-                        n = field.getCell(i, j-k);
-                        if(n != null && (!n.isEmpty())){
-                            h1 += 20 * Math.pow(.75,k-1); //for multiple filled blocks over empty block
-                        }
-                    }while(n!= null && (!n.isEmpty()));
+        int maxHeight = 0;
+
+        //h1 is summed in fixed point, so whole number weights add up exactly like the old int literals did
+        int h1 = transition * field.getTransitions(); //penalty for high arclen, one per filled cell next to an empty cell
+        h1 += sidedHole * sidedHoles; //extra penalty if surrounded on sides
+        h1 += hole * holeCount; //for multiple empty blocks in same col
+
+        for (int i=0; i<width; i++){
+            int column = field.getColumnMask(i);
+            colWeight += field.getColumnBlocks(i) * (Math.pow((width/2 - Math.abs(width/2 - i)),2)/2);
+
+            // holes with a filled block right above them
+            if (field.getColumnHoles(i) != 0) {
+                for(int b = ~column & (column << 1) & -(column & -column) & fullColumn; b != 0; b &= b - 1){
+                    int j = Integer.numberOfTrailingZeros(b);
+                    int k = Integer.numberOfLeadingZeros(~(column << (32 - j)));
+                    h1 += coverPenalty[k]; //for multiple filled blocks over empty block
                 }
             }
-            localMaxHeights[i] = field.getHeight() - localMaxHeight;
-            if(localMaxHeight < maxHeight){
-                maxHeight = localMaxHeight;
-            }
+
+            // Higher is closer to 0
+            maxHeight = Math.max(maxHeight, field.getColumnHeight(i));
+        }
+
+        /////////////////////////////
+        //rows cleared utilities
+        int h3 = 200;
+        int firstCleared  = (firstMove == null)? 0 : firstMove.cleared;
+        int secondCleared = (secondMove == null)? 0 : secondMove.cleared;
+        //terms of clears that did not happen are 0, most placements clear nothing
+        if(firstCleared != 0 || secondCleared != 0){
+            //-1 is highly desirable, 1 is highly undesirable
+            double clearDesirability =  ((maxHeight > field.getHeight()/2)?-1:1) * Math.pow(((double)(maxHeight - field.getHeight()/2)),2)/Math.pow((double)field.getHeight()/2,2);
+            //-1 is highly desirable, 0 is highly undesirable
+            double downstackDesirability = (-Math.min(1,Math.pow(holes/downstackHoles,3)));
+
+            int oneCleared = ((firstCleared == 1)?1:0) + ((secondCleared == 1)?1:0);
+            if(oneCleared != 0)
+                h3 += this.oneCleared * oneCleared * (clearDesirability + downstackDesirability + oneClearedBias);
+
+            int twoCleared = ((firstCleared == 2)?1:0) + ((secondCleared == 2)?1:0);
+            if(twoCleared != 0)
+                h3 += this.twoCleared * twoCleared * (clearDesirability + downstackDesirability);
+
+            int threeCleared = ((firstCleared == 3)?1:0) + ((secondCleared == 3)?1:0);
+            if(threeCleared != 0)
+                h3 += this.threeCleared * threeCleared * (clearDesirability + downstackDesirability - threeClearedBias);
+
+            int fourCleared = ((firstCleared == 4)?1:0) + ((secondCleared == 4)?1:0);
+            if(fourCleared != 0)
+                h3 -= this.fourCleared * (1 - downstackDesirability) * fourCleared;
         }
+        /////////////////////////////
+        //tspin utilities
+        int h4 = 400;
+        int firstSpin = (firstMove != null && firstMove.tspin)? firstCleared : 0;
+        int secondSpin = (secondMove != null && secondMove.tspin)? secondCleared : 0;
+
+        int oneSpin = ((firstSpin == 1)?1:0) + ((secondSpin == 1)?1:0);
+        if(oneSpin != 0)
+            h4 -= this.oneSpin * oneSpin * oneSpin;
+
+        int twoSpin = ((firstSpin == 2)?1:0) + ((secondSpin == 2)?1:0);
+        if(twoSpin != 0)
+            h4 -= this.twoSpin * twoSpin * twoSpin;
 
         ////////////////////////////////////////////
         //height utilities
         int h2 = 0;
-        maxHeight = field.getHeight() - maxHeight;
         field.setBlockHeight(maxHeight);
 
         //penalizes extreme heights
-        h2 += 200*(Math.pow(((double)Math.max((maxHeight - field.getHeight()/2),0)),2)/Math.pow((double)field.getHeight()/2,2));
-        h2 += 120*(((double)Math.max((maxHeight - field.getHeight()/2),0))/((double)field.getHeight()/2));
+        h2 += extremeHeight*(Math.pow(((double)Math.max((maxHeight - field.getHeight()/2),0)),2)/Math.pow((double)field.getHeight()/2,2));
+        h2 += extremeHeightLinear*(((double)Math.max((maxHeight - field.getHeight()/2),0))/((double)field.getHeight()/2));
 
         if(totalBlocks == 0){
-            h2 -= 700; //perfect clear
+            h2 -= perfectClear; //perfect clear
         } else {
             //h1 -= totalBlocks; //counterbalances row clear bonuses
-            h2 += 8 * colWeight/totalBlocks; //encourages upstacking on sides
+            h2 += sideStacking * colWeight/totalBlocks; //encourages upstacking on sides
+        }
+
+        //the rest of h2 loses at most 1 per forgiven double penalty to truncation, stop if the value cannot get to par
+        int bound = (int) ((long) neighbor*h1 >> 2*FIXED_SHIFT) + h2 - 2 + h3 + h4;
+        if(bound > par){
+            return bound;
         }
 
+        //the column heights are read from the field's column masks, nothing is allocated per evaluation
         double forgivenCol = 0;
-        for(int i=1; i<localMaxHeights.length; i++){
-            double penalty = 2*Math.pow(Math.max(Math.abs(localMaxHeights[i]-localMaxHeights[i-1])-1, 0),2);
+        for(int i=1; i<width; i++){
+            double penalty = neighborPenalty[Math.abs(field.getColumnHeight(i)-field.getColumnHeight(i-1))];
             h2 += penalty; //penalizes column height differences
-            //h2 += Math.max(Math.abs(localMaxHeights[i]-localMaxHeights[i-1] - ((i<field.getWidth()/2)? -1 : 1)), 0)/2; //convex heuristic
+            //h2 += Math.max(Math.abs(field.getColumnHeight(i)-field.getColumnHeight(i-1) - ((i<field.getWidth()/2)? -1 : 1)), 0)/2; //convex heuristic
             if(penalty > forgivenCol){
                 forgivenCol = penalty;
             }
@@ -105,8 +272,8 @@ public class PrimaryUtility implements Utility {//TODO GA, field height changes?
         h2 -= forgivenCol; //allows 1 large height difference
 
         forgivenCol = 0;
-        for(int i=0; i<localMaxHeights.length/2; i++){
-            double penalty = Math.pow(Math.max(Math.abs(localMaxHeights[i]-localMaxHeights[field.getWidth() - 1 - i])-1, 0),2)/3;
+        for(int i=0; i<width/2; i++){
+            double penalty = asymmetryPenalty[Math.abs(field.getColumnHeight(i)-field.getColumnHeight(width - 1 - i))];
             h2 += penalty; //penalizes asymmetry
             if(penalty > forgivenCol){
                 forgivenCol = penalty;
@@ -114,56 +281,22 @@ public class PrimaryUtility implements Utility {//TODO GA, field height changes?
         }
         h2 -= forgivenCol; //allows 1 large symmetric difference
 
-        PriorityQueue<Integer> forgiven = new PriorityQueue<>();
-        forgiven.add(0);
-        forgiven.add(0);
-        for(int i=0; i<localMaxHeights.length; i++){
-            double penalty = Math.max(maxHeight-localMaxHeights[i] - 5, 0);
+        int forgivenLow = 0; //the two largest penalties
+        int forgivenHigh = 0;
+        for(int i=0; i<width; i++){
+            int penalty = maxMinPenalty[maxHeight-field.getColumnHeight(i)];
             h2 += penalty; //penalizes max-min height differences
-            if(penalty > forgiven.peek()){
-                forgiven.poll();
-                forgiven.add((int) penalty);
+            if(penalty > forgivenLow){
+                forgivenLow = Math.min(penalty, forgivenHigh);
+                forgivenHigh = Math.max(penalty, forgivenHigh);
             }
         }
-        h2-=forgiven.poll(); //allows 2 max-min height differences
-        h2-=forgiven.poll();
-
+        h2-=forgivenLow; //allows 2 max-min height differences
+        h2-=forgivenHigh;
 
-        /////////////////////////////
-        //rows cleared utilities
-        int h3 = 200;
-        //-1 is highly desirable, 1 is highly undesirable
-        double clearDesirability =  ((maxHeight > field.getHeight()/2)?-1:1) * Math.pow(((double)(maxHeight - field.getHeight()/2)),2)/Math.pow((double)field.getHeight()/2,2);
-        //-1 is highly desirable, 0 is highly undesirable
-        double downstackDesirability = (-Math.min(1,Math.pow(holes/5,3)));
-        int firstCleared  = (firstMove == null)? 0 : firstMove.cleared;
-        int secondCleared = (secondMove == null)? 0 : secondMove.cleared;
-
-        int oneCleared = ((firstCleared == 1)?1:0) + ((secondCleared == 1)?1:0);
-        h3 += 24 * oneCleared * (clearDesirability + downstackDesirability + .6);
-
-        int twoCleared = ((firstCleared == 2)?1:0) + ((secondCleared == 2)?1:0);
-        h3 += 24 * twoCleared * (clearDesirability + downstackDesirability);
-
-        int threeCleared = ((firstCleared == 3)?1:0) + ((secondCleared == 3)?1:0);
-        h3 += 35 * threeCleared * (clearDesirability + downstackDesirability -.6);
-
-        int fourCleared = ((firstCleared == 4)?1:0) + ((secondCleared == 4)?1:0);
-        h3 -= 65 * (1 - downstackDesirability) * fourCleared;
-        /////////////////////////////
-        //tspin utilities
-        int h4 = 400;
-        int firstSpin = (firstMove != null && firstMove.tspin)? firstCleared : 0;
-        int secondSpin = (secondMove != null && secondMove.tspin)? secondCleared : 0;
-
-        int oneSpin = ((firstSpin == 1)?1:0) + ((secondSpin == 1)?1:0);
-        h4 -= 60* Math.pow(oneSpin,2);
-
-        int twoSpin = ((firstSpin == 2)?1:0) + ((secondSpin == 2)?1:0);
-        h4 -= 90* Math.pow(twoSpin,2);
 
         /////////////////////////////
-        return 2*h1 + h2 + h3 + h4;
+        return (int) ((long) neighbor*h1 >> 2*FIXED_SHIFT) + h2 + h3 + h4;
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,232 @@
+package org.gtagency.autotetris.bot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the engine's commands line by line from a reused byte buffer.
+ *
+ * Lines are split into space separated tokens in place, the tokens are
+ * only remembered as offsets into the buffer. Numbers, words and fields
+ * are decoded straight from the bytes, so reading an update does not
+ * create Strings or other objects. getString is there for the commands
+ * that only come once per game, like the settings.
+ */
+public class ProtocolReader {
+
+    private static final int MAX_TOKENS = 8; // tokens after these are part of the last one
+
+    private final InputStream in;
+    private byte[] buffer = new byte[1 << 14];
+    private int position; // first byte that is not part of a line that was read
+    private int scanned;  // bytes before this are known to have no line end after position
+    private int limit;    // bytes after this were not read yet
+    private boolean eof;
+
+    private int lineStart;
+    private int lineEnd;
+    private final int[] tokenStarts = new int[MAX_TOKENS];
+    private final int[] tokenEnds = new int[MAX_TOKENS];
+    private int tokenCount;
+
+    public ProtocolReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line that is not blank and splits it into tokens
+     * @return false at the end of the input
+     */
+    public boolean next() throws IOException {
+        while(true){
+            int newline = -1;
+            for(int i=scanned; i<limit; i++){
+                if(buffer[i] == '\n'){
+                    newline = i;
+                    break;
+                }
+            }
+            if(newline < 0){
+                scanned = limit;
+                if(!eof){
+                    fill();
+                    continue;
+                }
+                if(position == limit)
+                    return false;
+                newline = limit; // the last line has no line end
+            }
+            lineStart = position;
+            lineEnd = newline;
+            position = Math.min(newline + 1, limit);
+            scanned = position;
+            tokenize();
+            if(tokenCount > 0)
+                return true;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, grows it if a line
+     * does not fit, and reads as much as the input has available
+     */
+    private void fill() throws IOException {
+        if(position > 0){
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            scanned -= position;
+            position = 0;
+        }
+        if(limit == buffer.length){
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if(read < 0){
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private void tokenize() {
+        tokenCount = 0;
+        int i = lineStart;
+        while(i < lineEnd){
+            while(i < lineEnd && isSpace(buffer[i])){
+                i++;
+            }
+            if(i == lineEnd)
+                break;
+            tokenStarts[tokenCount] = i;
+            if(tokenCount == MAX_TOKENS - 1){
+                i = lineEnd;
+                while(isSpace(buffer[i - 1])){
+                    i--;
+                }
+            } else {
+                while(i < lineEnd && !isSpace(buffer[i])){
+                    i++;
+                }
+            }
+            tokenEnds[tokenCount++] = i;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return true if the token is the word, compared without creating a String
+     */
+    public boolean is(int token, String word) {
+        if(token >= tokenCount)
+            return false;
+        int start = tokenStarts[token];
+        if(tokenEnds[token] - start != word.length())
+            return false;
+        for(int i=0; i<word.length(); i++){
+            if(buffer[start + i] != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    public String getString(int token) {
+        return new String(buffer, tokenStarts[token], tokenEnds[token] - tokenStarts[token], StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the whole line, for error messages
+     */
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.US_ASCII).trim();
+    }
+
+    public int getInt(int token) {
+        return (int) getLong(token, 0);
+    }
+
+    public long getLong(int token) {
+        return getLong(token, 0);
+    }
+
+    /**
+     * Parses the index-th of the comma separated numbers in a token, like the y of "3,-1"
+     */
+    public long getLong(int token, int index) {
+        int i = tokenStarts[token];
+        int end = tokenEnds[token];
+        for(int skipped = 0; skipped < index; i++){
+            if(i == end)
+                throw new NumberFormatException("Missing number " + index + " in '" + getString(token) + "'");
+            if(buffer[i] == ',')
+                skipped++;
+        }
+        boolean negative = i < end && buffer[i] == '-';
+        if(negative || (i < end && buffer[i] == '+'))
+            i++;
+        int digits = 0;
+        long value = 0;
+        for(; i < end && buffer[i] != ','; i++, digits++){
+            int digit = buffer[i] - '0';
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("Unable to parse '" + getString(token) + "'");
+            value = value * 10 + digit;
+        }
+        if(digits == 0)
+            throw new NumberFormatException("Unable to parse '" + getString(token) + "'");
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decodes a field token, rows separated by ; and cells by , with the
+     * codes of CellType, into one BLOCK, SOLID and SHAPE mask per row
+     * @return false if the token does not have the given size, the masks are partly written then
+     */
+    public boolean readField(int token, int width, int height, int[] blockRows, int[] solidRows, int[] shapeRows) {
+        int i = tokenStarts[token];
+        int end = tokenEnds[token];
+        for(int y=0; y<height; y++){
+            int block = 0;
+            int solid = 0;
+            int shape = 0;
+            for(int x=0; x<width; x++){
+                if(i >= end)
+                    return false;
+                int bit = 1 << x;
+                switch(buffer[i++]){
+                case '0':
+                    break;
+                case '1':
+                    shape |= bit;
+                    break;
+                case '2':
+                    block |= bit;
+                    break;
+                case '3':
+                    solid |= bit;
+                    break;
+                default:
+                    return false;
+                }
+                // every cell but the last one of a row is followed by a comma
+                if(x < width - 1 && (i >= end || buffer[i++] != ','))
+                    return false;
+            }
+            blockRows[y] = block;
+            solidRows[y] = solid;
+            shapeRows[y] = shape;
+            if(y < height - 1 && (i >= end || buffer[i++] != ';'))
+                return false;
+        }
+        return i == end;
+    }
+}
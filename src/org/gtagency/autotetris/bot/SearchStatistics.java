@@ -0,0 +1,171 @@
+package org.gtagency.autotetris.bot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of the getMoves calls of a game goes.
+ *
+ * The phases of a move add their time to the move with add, and endMove
+ * records each phase's total of the move into its histogram, which has a
+ * bucket per power of two ns. The search also counts the placements it
+ * generated, evaluated and dropped as duplicates and the t-spins it found.
+ * Everything is lock-free, times and counts go into LongAdders and the
+ * buckets are an AtomicLongArray, so the threads of a parallel search
+ * record without waiting on each other. With several threads the search phases add up
+ * the time of all threads. The search adds its numbers once per candidate
+ * or ply, not per placement, so recording costs a few nanoTime calls per
+ * candidate. toString summarizes the game.
+ */
+public class SearchStatistics {
+
+    public enum Phase {
+        PARSE("parse"),           // applying the updates of the move to the state
+        LIFT("lift"),             // taking the falling piece off the field
+        FIRST_PLY("first ply"),   // placements of the current shape
+        SECOND_PLY("second ply"), // placements of the next shape, for every first ply candidate
+        EVALUATE("evaluate"),     // applying, looking up or evaluating, and undoing the placements
+        DEEPEN("deepen"),         // the plies after the second, when searched
+        PATH("path"),             // moves to the chosen placement
+        TOTAL("getMoves");        // the whole call
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Counter {
+        GENERATED("placements generated"),
+        EVALUATED("placements evaluated"),
+        DUPLICATES("duplicate placements dropped"),
+        TSPINS("t-spins found");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    /**
+     * Counts of values by their highest bit, lock-free
+     */
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            buckets.incrementAndGet((value <= 0) ? 0 : 63 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMean() {
+            long n = count.sum();
+            return (n == 0) ? 0 : (double) sum.sum() / n;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the upper bound of the bucket that holds the p-th fraction of the values
+         */
+        long getPercentile(double p) {
+            long n = count.sum();
+            if(n == 0)
+                return 0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for(int b=0; b<64; b++){
+                seen += buckets.get(b);
+                if(seen >= rank)
+                    return Math.min((b == 63) ? Long.MAX_VALUE : (2L << b) - 1, getMax());
+            }
+            return getMax();
+        }
+    }
+
+    private final LongAdder[] move = new LongAdder[PHASES.length]; // ns of the current move
+    private final Histogram[] histograms = new Histogram[PHASES.length];
+    private final LongAdder[] counters = new LongAdder[COUNTERS.length];
+
+    public SearchStatistics() {
+        for(int p=0; p<PHASES.length; p++){
+            move[p] = new LongAdder();
+            histograms[p] = new Histogram();
+        }
+        for(int c=0; c<COUNTERS.length; c++){
+            counters[c] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds time to the phase of the current move
+     */
+    public void add(Phase phase, long nanos) {
+        move[phase.ordinal()].add(nanos);
+    }
+
+    public void count(Counter counter, long n) {
+        if(n != 0){
+            counters[counter.ordinal()].add(n);
+        }
+    }
+
+    /**
+     * Records the time of each phase of the move that is done, phases that
+     * did not run in it are left out
+     */
+    public void endMove() {
+        for(int p=0; p<PHASES.length; p++){
+            long nanos = move[p].sumThenReset();
+            if(nanos != 0){
+                histograms[p].record(nanos);
+            }
+        }
+    }
+
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    Histogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        long moves = histograms[Phase.TOTAL.ordinal()].getCount();
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("search: %d moves, us per move (percentiles to a power of two)%n", moves));
+        s.append(String.format("%-11s%9s%9s%9s%9s%n", "phase", "mean", "p50", "p99", "max"));
+        for(Phase phase : PHASES){
+            Histogram h = histograms[phase.ordinal()];
+            if(h.getCount() == 0)
+                continue;
+            s.append(String.format("%-11s%9.1f%9.1f%9.1f%9.1f%n", phase.label, h.getMean() / 1e3,
+                    h.getPercentile(.5) / 1e3, h.getPercentile(.99) / 1e3, h.getMax() / 1e3));
+        }
+        for(int c=0; c<COUNTERS.length; c++){
+            long n = counters[c].sum();
+            s.append(String.format("%s: %d (%.1f per move)", COUNTERS[c].label, n, (moves == 0) ? 0 : (double) n / moves));
+            s.append((c < COUNTERS.length - 1) ? ", " : "");
+        }
+        return s.toString();
+    }
+}
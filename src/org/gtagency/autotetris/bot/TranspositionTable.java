@@ -0,0 +1,113 @@
+package org.gtagency.autotetris.bot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size cache of evaluated positions, keyed by a 64 bit hash.
+ *
+ * Entries are two longs, the key xor'ed with the data and the data itself,
+ * so an entry that was torn by a concurrent write does not verify and is
+ * read as a miss. This lets search threads share the table without locks.
+ * Buckets hold two entries. A store replaces an entry with the same key,
+ * else an empty one, else the one written in the oldest search.
+ * Values above the par of the evaluation are stored as lower bounds.
+ */
+public class TranspositionTable {
+
+    public static final int MISS = Integer.MIN_VALUE;
+
+    // data: bit 63 marks a used entry, bit 62 a lower bound, then the generation and the value
+    private static final long USED = 1L << 63;
+    private static final long BOUND = 1L << 62;
+
+    private final long[] entries; // key ^ data, data
+    private final int bucketMask;
+    private int generation;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * @param bits : the table holds 2^bits entries
+     */
+    public TranspositionTable(int bits) {
+        if(bits < 1 || bits > 28)
+            throw new IllegalArgumentException("Table size of 2^" + bits + " entries is not supported");
+        this.entries = new long[2 << bits];
+        this.bucketMask = (1 << (bits - 1)) - 1;
+    }
+
+    /**
+     * Starts a new search, entries of older searches are replaced first
+     */
+    public void newSearch() {
+        generation++;
+    }
+
+    /**
+     * @return the stored value, a value above par if only a bound above par is stored, or MISS
+     */
+    public int get(long key, int par) {
+        probes.increment();
+        int slot = (int) key & bucketMask;
+        for(int e = slot << 2; e < (slot << 2) + 4; e += 2) {
+            long data = entries[e + 1];
+            if((entries[e] ^ data) == key && data != 0) {
+                if((data & BOUND) != 0 && (int) data <= par)
+                    return MISS;
+                hits.increment();
+                return (int) data;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * @param par : the par the value was evaluated with, above it the value may be a lower bound
+     */
+    public void put(long key, int value, int par) {
+        long data = USED | ((long) (generation & 0x3FFFFFFF) << 32) | (value & 0xFFFFFFFFL);
+        if(value > par)
+            data |= BOUND;
+        int e = ((int) key & bucketMask) << 2;
+        int other = e + 2;
+        if((entries[e] ^ entries[e + 1]) != key
+                && ((entries[other] ^ entries[other + 1]) == key || entries[other + 1] == 0
+                || generationOf(entries[other + 1]) < generationOf(entries[e + 1]))) {
+            e = other;
+        }
+        entries[e] = key ^ data;
+        entries[e + 1] = data;
+    }
+
+    private static int generationOf(long data) {
+        return (int) (data >>> 32) & 0x3FFFFFFF;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return fraction of the entries in use, counted by a scan
+     */
+    public double getOccupancy() {
+        long used = 0;
+        for(int e=1; e < entries.length; e += 2) {
+            if(entries[e] != 0)
+                used++;
+        }
+        return used / (entries.length / 2.0);
+    }
+
+    @Override
+    public String toString() {
+        long probes = getProbes();
+        return String.format("transposition table: %d probes, %.1f%% hits, %.1f%% occupied",
+                probes, (probes == 0) ? 0.0 : 100.0 * getHits() / probes, 100 * getOccupancy());
+    }
+}
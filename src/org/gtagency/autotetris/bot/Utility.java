@@ -5,5 +5,10 @@ import org.gtagency.autotetris.bot.BotStarter.Node;
 import org.gtagency.autotetris.bot.BotState;
 
 public interface Utility {
+    /**
+     * @param par : only values up to par matter to the caller
+     * @return : the value of the field, lower is better. Above par it may only be
+     *           a lower bound, once it is known that the value cannot get to par
+     */
     double value(Field field, Node firstMove, Node secondMove, BotState state, int par);
 }
\ No newline at end of file
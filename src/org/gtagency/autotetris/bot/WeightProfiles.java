@@ -0,0 +1,127 @@
+package org.gtagency.autotetris.bot;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the weight vectors of PrimaryUtility.
+ *
+ * A profile file holds "name value" lines, one per weight, and "[profile]"
+ * lines that start a new named profile. Lines before the first header
+ * belong to the profile "default", lines starting with # are comments.
+ * Every profile starts out with the default weights, so a profile only
+ * lists the weights it changes:
+ *
+ *     hole 10.5
+ *     [aggressive]
+ *     one_cleared 30
+ *     four_cleared 80
+ *
+ * Weights can also be given inline as "name=value" pairs separated by
+ * commas or spaces. A weight PrimaryUtility cannot evaluate with, like a
+ * negative one, is an error that names the weight, and the line for a
+ * file. Weights are only parsed here, once per bot, the evaluator itself
+ * works on the resulting double[].
+ */
+public class WeightProfiles {
+
+    public static final String DEFAULT = "default";
+
+    /**
+     * @param source : a profile file, inline weights, or null for the default weights
+     * @param profile : the profile to take from a file, ignored for inline weights
+     */
+    public static double[] get(String source, String profile) throws IOException {
+        if(source == null){
+            return PrimaryUtility.getDefaultWeights();
+        }
+        if(source.indexOf('=') >= 0){
+            return parse(source);
+        }
+        double[] weights = load(source).get(profile);
+        if(weights == null)
+            throw new IOException("No weight profile '" + profile + "' in " + source);
+        return weights;
+    }
+
+    /**
+     * @return every profile in the file by name, in file order
+     */
+    public static Map<String, double[]> load(String fileName) throws IOException {
+        Map<String, double[]> profiles = new LinkedHashMap<String, double[]>();
+        double[] weights = PrimaryUtility.getDefaultWeights();
+        profiles.put(DEFAULT, weights);
+        try(BufferedReader reader = new BufferedReader(new FileReader(fileName))){
+            String line;
+            int number = 0;
+            while((line = reader.readLine()) != null){
+                number++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                if(line.startsWith("[") && line.endsWith("]")){
+                    weights = PrimaryUtility.getDefaultWeights();
+                    profiles.put(line.substring(1, line.length() - 1).trim(), weights);
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if(parts.length != 2 || !set(weights, parts[0], parts[1]))
+                    throw new IOException("Unable to parse weight '" + line + "' in " + fileName + " line " + number);
+                String error = PrimaryUtility.checkWeight(indexOf(parts[0]), Double.parseDouble(parts[1]));
+                if(error != null)
+                    throw new IOException(error + " in " + fileName + " line " + number);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unable to parse weights in " + fileName, e);
+        }
+        return profiles;
+    }
+
+    /**
+     * @param spec : "name=value" pairs separated by commas or spaces, weights that are not named keep their default
+     */
+    public static double[] parse(String spec) {
+        double[] weights = PrimaryUtility.getDefaultWeights();
+        for(String pair : spec.trim().split("[,\\s]+")){
+            int split = pair.indexOf('=');
+            if(split < 0 || !set(weights, pair.substring(0, split), pair.substring(split + 1)))
+                throw new IllegalArgumentException("Unable to parse weight '" + pair + "'");
+            int index = indexOf(pair.substring(0, split));
+            String error = PrimaryUtility.checkWeight(index, weights[index]);
+            if(error != null)
+                throw new IllegalArgumentException(error);
+        }
+        return weights;
+    }
+
+    /**
+     * Writes one "name value" line per weight, read back as the default profile
+     */
+    public static void save(double[] weights, String fileName) throws IOException {
+        try(PrintWriter writer = new PrintWriter(fileName)){
+            for(int i=0; i<PrimaryUtility.WEIGHT_NAMES.length; i++){
+                writer.println(PrimaryUtility.WEIGHT_NAMES[i] + " " + weights[i]);
+            }
+        }
+    }
+
+    private static boolean set(double[] weights, String name, String value) {
+        int i = indexOf(name);
+        if(i < 0)
+            return false;
+        weights[i] = Double.parseDouble(value);
+        return true;
+    }
+
+    private static int indexOf(String name) {
+        for(int i=0; i<PrimaryUtility.WEIGHT_NAMES.length; i++){
+            if(PrimaryUtility.WEIGHT_NAMES[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -58,10 +58,7 @@ public class Cell {
     }
 
     public boolean hasCollision(Field f) {
-        Cell cell = f.getCell(this.location.x, this.location.y);
-        if(cell == null)
-            return false;
-        return (this.state == CellType.SHAPE && (cell.isSolid() || cell.isBlock()));
+        return (this.state == CellType.SHAPE && f.isOccupied(this.location.x, this.location.y));
     }
 
     public void setShape() {
@@ -20,9 +20,11 @@ package org.gtagency.autotetris.field;
 import java.awt.Color;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Random;
 
 import org.gtagency.autotetris.bot.BotStarter.Node;
 import org.gtagency.autotetris.field.Cell;
@@ -34,7 +36,13 @@ import org.gtagency.autotetris.field.Cell;
  * Field class
  * 
  * Represents the playing field for one player.
- * Has some basic methods already implemented.
+ * Occupancy is stored as one int mask per row (bit x is column x), with
+ * separate masks for BLOCK, SOLID and SHAPE cells. Cell objects are only
+ * created on demand as a read-only view, e.g. for rendering.
+ * The field also keeps one mask per column (bit y is row y) and features
+ * derived from it, like holes and transitions, which are only recomputed
+ * for the columns that changed since they were last read.
+ * A 64 bit Zobrist hash of all cells is kept up to date as well.
  * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
@@ -44,43 +52,87 @@ public class Field {
     private int blockHeight;
     private int width;
     private int height;
-    private Cell grid[][];
+    private int fullRow; // mask with all width bits set
+    private int[] blockRows;
+    private int[] solidRows;
+    private int[] shapeRows;
+    private Color[] colors; // only allocated once a color is set, e.g. by the GUI
+
+    // column masks, filled means BLOCK, SOLID or SHAPE
+    private int fullColumn; // mask with all height bits set
+    private int[] filledColumns;
+    private int[] blockColumns;
+
+    // features of the column masks, refreshed for dirty columns when read
+    private int dirtyColumns;
+    private int[] columnHoles; // empty cells below the top filled cell
+    private int[] columnSidedHoles; // holes with filled cells or walls on both sides
+    private int[] columnTransitions; // filled/empty changes between vertical neighbors
+    private int[] pairTransitions; // filled/empty changes between column x and x + 1
+    private int holes;
+    private int sidedHoles;
+    private int transitions;
+    private int blocks;
+
+    // Zobrist keys per cell type (BLOCK, SOLID, SHAPE) and cell, indexed by y << 5 | x
+    private static final long[][] ZOBRIST = new long[3][32 * 32];
+    private long hash;
+
+    static {
+        Random random = new Random(0x5EEDL);
+        for(long[] keys : ZOBRIST) {
+            for(int i=0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+        }
+    }
+
+    // undo entries for apply: first row of the shape, its 4 row masks, the cleared rows mask and the hash
+    private static final int UNDO_SIZE = 8;
+    private int[] undoStack = new int[4 * UNDO_SIZE];
+    private int undoDepth;
 
     private Field(Field field) {
-        this.width = field.getWidth();
-        this.height = field.getHeight();
-        this.grid = new Cell[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                grid[x][y] = new Cell(x, y, field.getCell(x, y).getState());
-            }
+        this.width = field.width;
+        this.height = field.height;
+        this.fullRow = field.fullRow;
+        this.blockHeight = field.blockHeight;
+        this.blockRows = field.blockRows.clone();
+        this.solidRows = field.solidRows.clone();
+        this.shapeRows = field.shapeRows.clone();
+        if (field.colors != null) {
+            this.colors = field.colors.clone();
         }
+        this.fullColumn = field.fullColumn;
+        this.filledColumns = field.filledColumns.clone();
+        this.blockColumns = field.blockColumns.clone();
+        this.dirtyColumns = field.dirtyColumns;
+        this.columnHoles = field.columnHoles.clone();
+        this.columnSidedHoles = field.columnSidedHoles.clone();
+        this.columnTransitions = field.columnTransitions.clone();
+        this.pairTransitions = field.pairTransitions.clone();
+        this.holes = field.holes;
+        this.sidedHoles = field.sidedHoles;
+        this.transitions = field.transitions;
+        this.blocks = field.blocks;
+        this.hash = field.hash;
     }
 
     public Field(Field field, Shape shape) {
-        this.width = field.getWidth();
-        this.height = field.getHeight();
-        this.grid = new Cell[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (!field.getCell(x, y).isShape()) {
-                    grid[x][y] = field.getCell(x, y);
-                } else {
-                    grid[x][y] = new Cell(x, y, CellType.EMPTY);
-                }
-            }
+        this(field);
+        for (int y = 0; y < height; y++) {
+            setRow(y, blockRows[y], solidRows[y], 0);
         }
-
-        for (Cell cell : shape.getBlocks()) {
-            Point loc = cell.getLocation();
-            grid[loc.x][loc.y] = cell;
+        for (int i = 0; i < 4; i++) {
+            // the shape can stick out above the field when it just spawned
+            if (isInside(shape.getBlockX(i), shape.getBlockY(i))) {
+                setState(shape.getBlockX(i), shape.getBlockY(i), CellType.SHAPE);
+            }
         }
-
     }
 
     public Field(int width, int height, String fieldString) {
-        this.width = width;
-        this.height = height;
+        this(width, height);
 
         parse(fieldString);
     }
@@ -88,21 +140,24 @@ public class Field {
     public Field(int width, int height) {
         this.width = width;
         this.height = height;
-        this.grid = new Cell[width][height];   
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                grid[x][y] = new Cell(x, y, CellType.EMPTY);
-            }
-        }
+        this.fullRow = (1 << width) - 1;
+        this.blockRows = new int[height];
+        this.solidRows = new int[height];
+        this.shapeRows = new int[height];
+        this.fullColumn = (int) ((1L << height) - 1);
+        this.filledColumns = new int[width];
+        this.blockColumns = new int[width];
+        this.columnHoles = new int[width];
+        this.columnSidedHoles = new int[width];
+        this.columnTransitions = new int[width];
+        this.pairTransitions = new int[width];
     }
     /**
-     * Parses the input string to get a grid with Cell objects
+     * Parses the input string into the row masks
      * @param fieldString : input string
      */
     private void parse(String fieldString) {
 
-        this.grid = new Cell[this.width][this.height];
-
         // get the separate rows
         String[] rows = fieldString.split(";");
         for(int y=0; y < this.height; y++) {
@@ -111,71 +166,573 @@ public class Field {
             // parse each cell of the row
             for(int x=0; x < this.width; x++) {
                 int cellCode = Integer.parseInt(rowCells[x]);
-                this.grid[x][y] = new Cell(x, y, CellType.values()[cellCode]);
-                if(cellCode != 0)
-                    this.grid[x][y].setColor(Color.BLACK);
+                setState(x, y, CellType.values()[cellCode]);
             }
         }
     }
 
     public Shape liftShape(ShapeType type, Point location){
         Shape tempShape = new Shape(type, location);
+        int size = tempShape.getSize();
+        int firstRow = Math.max(location.y, 0);
+        int lastRow = Math.min(location.y + size, height);
+        int boxMask = (location.x >= 0) ? ((1 << size) - 1) << location.x : ((1 << size) - 1) >>> -location.x;
+        boxMask &= fullRow;
         boolean correct;
         do{
             correct = true;
             tempShape.turnRight();
-            for(int i=location.x; i < tempShape.getSize() + location.x; i++) {
-                for(int j=location.y; j < tempShape.getSize() + location.y; j++) {
-                    if(getCell(i, j) != null && tempShape.isAt(new Point(i,j)) != grid[i][j].isShape()){
-                        correct = false;
-                    }
+            for(int j=firstRow; j < lastRow; j++) {
+                if((shapeRows[j] & boxMask) != (tempShape.getFieldRowMask(j - location.y) & fullRow)){
+                    correct = false;
                 }
             }
         } while(!correct);
-        for(int i=location.x; i < tempShape.getSize() + location.x; i++) {
-            for(int j=location.y; j < tempShape.getSize() + location.y; j++) {
-                if(getCell(i,j) != null && grid[i][j].isShape())
-                    grid[i][j].setState(CellType.EMPTY);
-            }
+        for(int j=firstRow; j < lastRow; j++) {
+            setRow(j, blockRows[j], solidRows[j], shapeRows[j] & ~boxMask);
         }
         return tempShape;
     }
 
+    /**
+     * Returns a snapshot of the cell at the given position, or null when
+     * the position is outside the field. Changing the returned cell does not
+     * change the field, use setCell or setState for that.
+     */
     public Cell getCell(int x, int y) {
-        if(x < 0 || x >= this.width || y < 0 || y >= this.height)
+        if(!isInside(x, y))
             return null;
-        return this.grid[x][y];
+        Cell cell = new Cell(x, y, getState(x, y));
+        cell.setColor(getColor(x, y));
+        return cell;
+    }
+
+    /**
+     * @return the color the GUI shows for the cell inside the field, without creating a Cell
+     */
+    public Color getColor(int x, int y) {
+        Color color = (colors == null) ? null : colors[y * width + x];
+        if(color == null)
+            color = (getState(x, y) == CellType.EMPTY) ? Color.BLUE : Color.BLACK;
+        return color;
     }
 
     public void setCell(int x, int y, Cell c) {
-        this.grid[x][y] = c;
+        setState(x, y, c.getState());
+        setColor(x, y, c.getColor());
+    }
+
+    public CellType getState(int x, int y) {
+        int bit = 1 << x;
+        if((blockRows[y] & bit) != 0)
+            return CellType.BLOCK;
+        if((solidRows[y] & bit) != 0)
+            return CellType.SOLID;
+        if((shapeRows[y] & bit) != 0)
+            return CellType.SHAPE;
+        return CellType.EMPTY;
+    }
+
+    public void setState(int x, int y, CellType state) {
+        int bit = 1 << x;
+        int block = blockRows[y] & ~bit;
+        int solid = solidRows[y] & ~bit;
+        int shape = shapeRows[y] & ~bit;
+        switch(state) {
+        case BLOCK:
+            block |= bit;
+            break;
+        case SOLID:
+            solid |= bit;
+            break;
+        case SHAPE:
+            shape |= bit;
+            break;
+        default:
+            break;
+        }
+        setRow(y, block, solid, shape);
+    }
+
+    /**
+     * Replaces the masks of one row and updates the columns that changed
+     */
+    public void setRow(int y, int block, int solid, int shape) {
+        if(blockRows[y] == block && solidRows[y] == solid && shapeRows[y] == shape)
+            return;
+        int oldFilled = blockRows[y] | solidRows[y] | shapeRows[y];
+        int changed = (oldFilled ^ (block | solid | shape)) | (blockRows[y] ^ block);
+        hash ^= rowHash(y, blockRows[y] ^ block, solidRows[y] ^ solid, shapeRows[y] ^ shape);
+        blockRows[y] = block;
+        solidRows[y] = solid;
+        shapeRows[y] = shape;
+        if(changed == 0)
+            return;
+        int rowBit = 1 << y;
+        for(int m = changed; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            if((((block | solid | shape) >> x) & 1) != 0)
+                filledColumns[x] |= rowBit;
+            else
+                filledColumns[x] &= ~rowBit;
+            if(((block >> x) & 1) != 0)
+                blockColumns[x] |= rowBit;
+            else
+                blockColumns[x] &= ~rowBit;
+        }
+        markDirty(changed);
+    }
+
+    /**
+     * Replaces all rows with the given masks, only the rows that differ
+     * update the columns, their features and the hash
+     * @return the number of rows that changed
+     */
+    public int setRows(int[] block, int[] solid, int[] shape) {
+        int changed = 0;
+        for(int y=0; y < height; y++) {
+            if(blockRows[y] != block[y] || solidRows[y] != solid[y] || shapeRows[y] != shape[y]) {
+                setRow(y, block[y], solid[y], shape[y]);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Sets the color used when rendering the cell, null restores the default
+     */
+    public void setColor(int x, int y, Color c) {
+        if(colors == null) {
+            if(c == null)
+                return;
+            colors = new Color[width * height];
+        }
+        colors[y * width + x] = c;
+    }
+
+    public boolean isInside(int x, int y) {
+        return x >= 0 && x < this.width && y >= 0 && y < this.height;
+    }
+
+    /**
+     * @return true if the position is inside the field and holds a BLOCK or SOLID cell
+     */
+    public boolean isOccupied(int x, int y) {
+        return isInside(x, y) && (((blockRows[y] | solidRows[y]) >> x) & 1) != 0;
+    }
+
+    public boolean isBlock(int x, int y) {
+        return isInside(x, y) && ((blockRows[y] >> x) & 1) != 0;
+    }
+
+    public boolean isShape(int x, int y) {
+        return isInside(x, y) && ((shapeRows[y] >> x) & 1) != 0;
+    }
+
+    public int getBlockRow(int y) {
+        return blockRows[y];
+    }
+
+    public int getSolidRow(int y) {
+        return solidRows[y];
+    }
+
+    public int getShapeRow(int y) {
+        return shapeRows[y];
+    }
+
+    /**
+     * @return mask of all non-empty cells in the row
+     */
+    public int getFilledRow(int y) {
+        return blockRows[y] | solidRows[y] | shapeRows[y];
+    }
+
+    public int getFullRow() {
+        return fullRow;
+    }
+
+    public boolean hasCollision(Shape shape) {
+        int top = shape.getY();
+        for (int r = shape.getMinY(); r <= shape.getMaxY(); r++) {
+            int y = top + r;
+            if (y >= 0 && y < height && ((blockRows[y] | solidRows[y]) & shape.getFieldRowMask(r)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the cells of the shape to BLOCK, the shape must be inside the field
+     */
+    public void place(Shape shape) {
+        int top = shape.getY();
+        for (int r = shape.getMinY(); r <= shape.getMaxY(); r++) {
+            addBlocks(top + r, shape.getFieldRowMask(r));
+        }
+    }
+
+    /**
+     * Reverses place, should NOT be called otherwise
+     */
+    public void unplace(Shape shape) {
+        int top = shape.getY();
+        for (int r = shape.getMinY(); r <= shape.getMaxY(); r++) {
+            removeBlocks(top + r, shape.getFieldRowMask(r));
+        }
+    }
+
+    private void addBlocks(int y, int mask) {
+        blockRows[y] |= mask;
+        hash ^= rowHash(y, mask, 0, 0);
+        int rowBit = 1 << y;
+        for(int m = mask; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            filledColumns[x] |= rowBit;
+            blockColumns[x] |= rowBit;
+        }
+        markDirty(mask);
+    }
+
+    private void removeBlocks(int y, int mask) {
+        blockRows[y] &= ~mask;
+        hash ^= rowHash(y, mask, 0, 0);
+        int rowBit = 1 << y;
+        for(int m = mask; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            filledColumns[x] &= ~rowBit;
+            blockColumns[x] &= ~rowBit;
+        }
+        markDirty(mask);
+    }
+
+    /**
+     * Places the shape, removes the full rows and records an undo entry, so
+     * that a search can walk placements on one board. Render colors are not
+     * tracked. The shape must be inside the field.
+     * @return number of rows cleared
+     */
+    public int apply(Shape shape) {
+        if((undoDepth + 1) * UNDO_SIZE > undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, undoStack.length * 2);
+        }
+        int entry = undoDepth * UNDO_SIZE;
+        undoStack[entry + 6] = (int) (hash >>> 32);
+        undoStack[entry + 7] = (int) hash;
+        int top = shape.getY() + shape.getMinY();
+        int rows = shape.getMaxY() - shape.getMinY() + 1;
+        undoStack[entry] = top;
+        for(int r=0; r < 4; r++) {
+            int mask = (r < rows) ? shape.getFieldRowMask(shape.getMinY() + r) : 0;
+            undoStack[entry + 1 + r] = mask;
+            if(mask != 0) {
+                addBlocks(top + r, mask);
+            }
+        }
+
+        int clearedRows = 0;
+        for(int y=0; y < height; y++) {
+            if(blockRows[y] == fullRow) {
+                clearedRows |= 1 << y;
+            }
+        }
+        undoStack[entry + 5] = clearedRows;
+        undoDepth++;
+
+        if(clearedRows == 0) {
+            return 0;
+        }
+        int newRow = height - 1;
+        for(int oldRow = height - 1; oldRow >= 0; oldRow--) {
+            if(((clearedRows >> oldRow) & 1) == 0) {
+                blockRows[newRow] = blockRows[oldRow];
+                solidRows[newRow] = solidRows[oldRow];
+                shapeRows[newRow] = shapeRows[oldRow];
+                newRow--;
+            }
+        }
+        for(; newRow >= 0; newRow--) {
+            blockRows[newRow] = 0;
+            solidRows[newRow] = 0;
+            shapeRows[newRow] = 0;
+        }
+        removeColumnRows(clearedRows);
+        rehash();
+        return Integer.bitCount(clearedRows);
+    }
+
+    /**
+     * Reverts the last apply
+     */
+    public void undo() {
+        undoDepth--;
+        int entry = undoDepth * UNDO_SIZE;
+        int clearedRows = undoStack[entry + 5];
+        if(clearedRows != 0) {
+            // row y came from row y + (number of cleared rows below y), restore top down
+            int below = Integer.bitCount(clearedRows);
+            for(int y=0; y < height; y++) {
+                if(((clearedRows >> y) & 1) != 0) {
+                    below--;
+                    blockRows[y] = fullRow;
+                    solidRows[y] = 0;
+                    shapeRows[y] = 0;
+                } else if(below != 0) {
+                    blockRows[y] = blockRows[y + below];
+                    solidRows[y] = solidRows[y + below];
+                    shapeRows[y] = shapeRows[y + below];
+                }
+            }
+            insertColumnRows(clearedRows);
+        }
+        int top = undoStack[entry];
+        for(int r=0; r < 4; r++) {
+            int mask = undoStack[entry + 1 + r];
+            if(mask != 0) {
+                removeBlocks(top + r, mask);
+            }
+        }
+        hash = ((long) undoStack[entry + 6] << 32) | (undoStack[entry + 7] & 0xFFFFFFFFL);
     }
 
     public int removeFullRows(){
         int oldRow=height-1;
         int newRow=oldRow;
         int cleared=0;
+        int clearedRows=0;
         while (newRow>=0){
             while (oldRow>=0 && isFull(oldRow)){
+                clearedRows|=1<<oldRow;
                 oldRow-=1;
             }
             if (oldRow>=0){
-                for(int i=0; i<width; i++){
-                    grid[i][newRow]=grid[i][oldRow];
+                if (oldRow != newRow){
+                    blockRows[newRow]=blockRows[oldRow];
+                    solidRows[newRow]=solidRows[oldRow];
+                    shapeRows[newRow]=shapeRows[oldRow];
+                    if (colors != null)
+                        System.arraycopy(colors, oldRow * width, colors, newRow * width, width);
                 }
             }
             else{
                 cleared++;
-                for(int i=0; i<width; i++){
-                    grid[i][newRow]=new Cell();
-                }
+                blockRows[newRow]=0;
+                solidRows[newRow]=0;
+                shapeRows[newRow]=0;
+                if (colors != null)
+                    Arrays.fill(colors, newRow * width, (newRow + 1) * width, null);
             }
             newRow-=1;
             oldRow-=1;
         }
+        removeColumnRows(clearedRows);
+        if(clearedRows != 0)
+            rehash();
         return cleared;
     }
 
+    /**
+     * Pushes all rows one up and fills the bottom row with the masks, the
+     * way garbage and solid rows come in during a match
+     * @return true if filled cells were pushed out of the top
+     */
+    public boolean addRow(int block, int solid) {
+        boolean overflow = (blockRows[0] | solidRows[0] | shapeRows[0]) != 0;
+        System.arraycopy(blockRows, 1, blockRows, 0, height - 1);
+        System.arraycopy(solidRows, 1, solidRows, 0, height - 1);
+        System.arraycopy(shapeRows, 1, shapeRows, 0, height - 1);
+        blockRows[height - 1] = block;
+        solidRows[height - 1] = solid;
+        shapeRows[height - 1] = 0;
+        if (colors != null) {
+            System.arraycopy(colors, width, colors, 0, width * (height - 1));
+            Arrays.fill(colors, width * (height - 1), width * height, null);
+        }
+        int bottom = 1 << (height - 1);
+        for(int x=0; x < width; x++) {
+            filledColumns[x] = (filledColumns[x] >>> 1) | ((((block | solid) >> x) & 1) != 0 ? bottom : 0);
+            blockColumns[x] = (blockColumns[x] >>> 1) | (((block >> x) & 1) != 0 ? bottom : 0);
+        }
+        dirtyColumns = fullRow;
+        rehash();
+        return overflow;
+    }
+
+    /**
+     * Removes the rows from the column masks, the rows above move down
+     */
+    private void removeColumnRows(int rows) {
+        if(rows == 0)
+            return;
+        for(int x=0; x < width; x++) {
+            int filled = filledColumns[x];
+            int block = blockColumns[x];
+            for(int r = rows; r != 0; r &= r - 1) { // top row first
+                int bit = Integer.lowestOneBit(r);
+                int above = bit - 1;
+                int below = ~(above | bit);
+                filled = ((filled & above) << 1) | (filled & below);
+                block = ((block & above) << 1) | (block & below);
+            }
+            filledColumns[x] = filled;
+            blockColumns[x] = block;
+        }
+        dirtyColumns = fullRow;
+    }
+
+    /**
+     * Reverses removeColumnRows for rows that were full of blocks
+     */
+    private void insertColumnRows(int rows) {
+        for(int x=0; x < width; x++) {
+            int filled = filledColumns[x];
+            int block = blockColumns[x];
+            for(int r = rows; r != 0; r &= ~Integer.highestOneBit(r)) { // bottom row first
+                int bit = Integer.highestOneBit(r);
+                int above = bit - 1;
+                int below = ~(above | bit);
+                filled = ((filled >>> 1) & above) | bit | (filled & below);
+                block = ((block >>> 1) & above) | bit | (block & below);
+            }
+            filledColumns[x] = filled;
+            blockColumns[x] = block;
+        }
+        dirtyColumns = fullRow;
+    }
+
+    private static long rowHash(int y, int block, int solid, int shape) {
+        long h = 0;
+        for(int m = block; m != 0; m &= m - 1) {
+            h ^= ZOBRIST[0][y << 5 | Integer.numberOfTrailingZeros(m)];
+        }
+        for(int m = solid; m != 0; m &= m - 1) {
+            h ^= ZOBRIST[1][y << 5 | Integer.numberOfTrailingZeros(m)];
+        }
+        for(int m = shape; m != 0; m &= m - 1) {
+            h ^= ZOBRIST[2][y << 5 | Integer.numberOfTrailingZeros(m)];
+        }
+        return h;
+    }
+
+    private void rehash() {
+        hash = 0;
+        for(int y=0; y < height; y++) {
+            hash ^= rowHash(y, blockRows[y], solidRows[y], shapeRows[y]);
+        }
+    }
+
+    /**
+     * @return Zobrist hash of the cells, equal fields have equal hashes
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return number of rows from the bottom up to and including the highest filled cell
+     */
+    public int getMaxHeight() {
+        for(int y=0; y < height; y++) {
+            if((blockRows[y] | solidRows[y] | shapeRows[y]) != 0)
+                return height - y;
+        }
+        return 0;
+    }
+
+    private void markDirty(int columns) {
+        dirtyColumns |= (columns | (columns << 1) | (columns >>> 1)) & fullRow;
+    }
+
+    private void refreshColumns() {
+        for(int d = dirtyColumns; d != 0; d &= d - 1) {
+            int x = Integer.numberOfTrailingZeros(d);
+            int column = filledColumns[x];
+            int left = (x == 0) ? fullColumn : filledColumns[x - 1];
+            int right = (x == width - 1) ? fullColumn : filledColumns[x + 1];
+            int holeCells = ~column & -(column & -column) & fullColumn;
+
+            int h = Integer.bitCount(holeCells);
+            int s = Integer.bitCount(holeCells & left & right);
+            int t = Integer.bitCount((column ^ (column >>> 1)) & (fullColumn >>> 1));
+            int p = (x == width - 1) ? 0 : Integer.bitCount(column ^ right);
+            holes += h - columnHoles[x];
+            sidedHoles += s - columnSidedHoles[x];
+            transitions += t - columnTransitions[x] + p - pairTransitions[x];
+            columnHoles[x] = h;
+            columnSidedHoles[x] = s;
+            columnTransitions[x] = t;
+            pairTransitions[x] = p;
+        }
+        dirtyColumns = 0;
+        blocks = 0;
+        for(int x=0; x < width; x++) {
+            blocks += Integer.bitCount(blockColumns[x]);
+        }
+    }
+
+    /**
+     * @return mask of the filled cells in the column, bit y is row y
+     */
+    public int getColumnMask(int x) {
+        return filledColumns[x];
+    }
+
+    /**
+     * @return number of rows from the bottom up to and including the top filled cell
+     */
+    public int getColumnHeight(int x) {
+        int column = filledColumns[x];
+        return (column == 0) ? 0 : height - Integer.numberOfTrailingZeros(column);
+    }
+
+    public int getColumnBlocks(int x) {
+        return Integer.bitCount(blockColumns[x]);
+    }
+
+    public int getColumnHoles(int x) {
+        if(dirtyColumns != 0)
+            refreshColumns();
+        return columnHoles[x];
+    }
+
+    /**
+     * @return empty cells with a filled cell somewhere above them
+     */
+    public int getHoles() {
+        if(dirtyColumns != 0)
+            refreshColumns();
+        return holes;
+    }
+
+    /**
+     * @return holes that have a filled cell or a wall on both sides
+     */
+    public int getSidedHoles() {
+        if(dirtyColumns != 0)
+            refreshColumns();
+        return sidedHoles;
+    }
+
+    /**
+     * @return pairs of horizontally or vertically adjacent cells of which exactly one is filled
+     */
+    public int getTransitions() {
+        if(dirtyColumns != 0)
+            refreshColumns();
+        return transitions;
+    }
+
+    /**
+     * @return number of BLOCK cells
+     */
+    public int getBlockCount() {
+        if(dirtyColumns != 0)
+            refreshColumns();
+        return blocks;
+    }
+
     public int scanFullRows(){
         int filled = 0;
         for(int i = 0; i<height; i++){
@@ -199,13 +756,11 @@ public class Field {
         do{
             if(current.parent != null &&  current.parent.parent != null && current.isTerminal(this, s)){
                 s.setLocation(current.x, current.y);
-                while(s.getOrientation() != current.o){
-                    s.turnRight();
-                }
+                s.setOrientation(current.o);
                 if(s.checkTSpin(this, current.findMove(current.parent), current.parent.findMove(current.parent.parent), new Point(current.parent.x, current.parent.y))){
-                    s.place(this);
+                    place(s);
                     max = Math.max(max, scanFullRows());
-                    s.unplace(this);
+                    unplace(s);
                     if(max == -1){
                         max = 0;
                     }
@@ -231,18 +786,14 @@ public class Field {
     }
 
     public boolean isFull(int row){
-        for (int i=0; i<grid.length; i++){
-            if(!grid[i][row].isBlock())
-                return false;
-        }
-        return true;
+        return blockRows[row] == fullRow;
     }
 
     public String toString(){
         StringBuilder field = new StringBuilder();
         for(int i=0; i<height; i++){
             for(int j=0; j<width; j++){
-                field.append(grid[j][i].getState().ordinal());
+                field.append(getState(j, i).ordinal());
                 if(j != width-1)
                     field.append(",");
             }
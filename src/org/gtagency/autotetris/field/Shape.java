@@ -17,7 +17,6 @@
 
 package org.gtagency.autotetris.field;
 
-import java.awt.Color;
 import java.awt.Point;
 
 import org.gtagency.autotetris.field.Cell;
@@ -29,69 +28,122 @@ import org.gtagency.autotetris.moves.MoveType;
  * Shape class
  * 
  * Represents the shapes that appear in the field.
- * Some basic methods have already been implemented, but
- * actual move actions, etc. should still be created.
+ * A shape is only its type, orientation and location, the block layout of
+ * every type and orientation is looked up in tables that are built once
+ * when the class is loaded, so rotating or moving never allocates.
  * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
 
 public class Shape {
 
+    private static final int TYPES = 7;
+
+    // base layouts in orientation 0 as (x, y) pairs inside the bounding box, in ShapeType order
+    private static final int[][] BASE_BLOCKS = {
+        {0,1, 1,1, 2,1, 3,1}, // I
+        {0,0, 0,1, 1,1, 2,1}, // J
+        {2,0, 0,1, 1,1, 2,1}, // L
+        {0,0, 1,0, 0,1, 1,1}, // O
+        {1,0, 2,0, 0,1, 1,1}, // S
+        {1,0, 0,1, 1,1, 2,1}, // T
+        {0,0, 1,0, 1,1, 2,1}, // Z
+    };
+    private static final int[] SIZES = {4, 3, 3, 2, 3, 3, 3};
+
+    // tables indexed by [type][orientation]
+    private static final int[][][] BLOCK_X = new int[TYPES][4][4];
+    private static final int[][][] BLOCK_Y = new int[TYPES][4][4];
+    private static final int[][][] ROW_MASKS = new int[TYPES][4][];
+    private static final int[][] MIN_X = new int[TYPES][4];
+    private static final int[][] MAX_X = new int[TYPES][4];
+    private static final int[][] MIN_Y = new int[TYPES][4];
+    private static final int[][] MAX_Y = new int[TYPES][4];
+
+    static {
+        for(int t=0; t < TYPES; t++) {
+            int size = SIZES[t];
+            int[] xs = new int[4];
+            int[] ys = new int[4];
+            for(int i=0; i < 4; i++) {
+                xs[i] = BASE_BLOCKS[t][2*i];
+                ys[i] = BASE_BLOCKS[t][2*i+1];
+            }
+            for(int o=0; o < 4; o++) {
+                ROW_MASKS[t][o] = new int[size];
+                MIN_X[t][o] = MIN_Y[t][o] = size;
+                MAX_X[t][o] = MAX_Y[t][o] = -1;
+                for(int i=0; i < 4; i++) {
+                    BLOCK_X[t][o][i] = xs[i];
+                    BLOCK_Y[t][o][i] = ys[i];
+                    ROW_MASKS[t][o][ys[i]] |= 1 << xs[i];
+                    MIN_X[t][o] = Math.min(MIN_X[t][o], xs[i]);
+                    MAX_X[t][o] = Math.max(MAX_X[t][o], xs[i]);
+                    MIN_Y[t][o] = Math.min(MIN_Y[t][o], ys[i]);
+                    MAX_Y[t][o] = Math.max(MAX_Y[t][o], ys[i]);
+                }
+                // turning right moves the block at (x, y) of the box to (size - 1 - y, x)
+                for(int i=0; i < 4; i++) {
+                    int x = xs[i];
+                    xs[i] = size - 1 - ys[i];
+                    ys[i] = x;
+                }
+            }
+        }
+    }
+
     public ShapeType type;
     private int orientation;
-    private Cell[][] shape; // 2-dimensional bounding box: a matrix that contains the block-cells of the shape
-    private Cell[] blocks; // array that contains only the block-cells of the shape
     private int size;
-    private Point location;
+    private int x;
+    private int y;
 
     public Shape(ShapeType type, Point location) {
-        this.type = type;
-        this.blocks = new Cell[4];
-        this.location = location;
+        this(type, location.x, location.y, 0);
+    }
 
-        setShape();
-        setBlockLocations();
+    public Shape(ShapeType type, int x, int y, int orientation) {
+        this.type = type;
+        this.size = SIZES[type.ordinal()];
+        this.x = x;
+        this.y = y;
+        this.orientation = orientation;
     }
 
     public boolean isAt(Point p) {
-        for (Cell cell : blocks) {
-            if (cell.getLocation().equals(p)) {
-                return true;
-            }
-        }
-        return false;
+        return isAt(p.x, p.y);
+    }
+
+    public boolean isAt(int px, int py) {
+        int dx = px - x;
+        int dy = py - y;
+        if(dx < 0 || dx >= size || dy < 0 || dy >= size)
+            return false;
+        return ((getRowMask(dy) >> dx) & 1) != 0;
     }
 
     public void place(Field f){
-        for (Cell cell : blocks) {
-            f.getCell(cell.getLocation().x, cell.getLocation().y).setColor(type.color());
-            f.getCell(cell.getLocation().x, cell.getLocation().y).setState(CellType.BLOCK);
+        f.place(this);
+        for (int i=0; i < 4; i++) {
+            f.setColor(getBlockX(i), getBlockY(i), type.color());
         }
     }
 
     public void unplace(Field f){ //reverses the place method, should NOT be called otherwise
-        for (Cell cell : blocks) {
-            f.getCell(cell.getLocation().x, cell.getLocation().y).setColor(Color.BLUE);
-            f.getCell(cell.getLocation().x, cell.getLocation().y).setState(CellType.EMPTY);
+        f.unplace(this);
+        for (int i=0; i < 4; i++) {
+            f.setColor(getBlockX(i), getBlockY(i), null);
         }
     }
 
     public boolean hasCollision(Field f) {
-        for (Cell cell : blocks) {
-            if (cell.hasCollision(f)) {
-                return true;
-            }
-        }
-        return false;
+        return f.hasCollision(this);
     }
 
     public boolean isOutOfBoundaries(Field f) {
-        for (Cell cell : blocks) {
-            if (cell.isOutOfBoundaries(f)) {
-                return true;
-            }
-        }
-        return false;
+        int t = type.ordinal();
+        return x + MIN_X[t][orientation] < 0 || x + MAX_X[t][orientation] >= f.getWidth()
+                || y + MIN_Y[t][orientation] < -1 || y + MAX_Y[t][orientation] >= f.getHeight();
     }
 
     // ACTIONS (no checks for errors are performed in the actions!)
@@ -101,14 +153,6 @@ public class Shape {
      */
     public void turnLeft() {
         orientation=(orientation+3)%4;
-        Cell[][] temp = this.transposeShape();
-        for(int y=0; y < size; y++) {
-            for(int x=0; x < size; x++) {
-                this.shape[x][y] = temp[x][size - y - 1];
-            }
-        }
-
-        this.setBlockLocations();
     }
 
     /**
@@ -116,149 +160,22 @@ public class Shape {
      */
     public void turnRight() {
         orientation=(orientation+1)%4;
-        Cell[][] temp = this.transposeShape();
-        for(int x=0; x < size; x++) {
-            this.shape[x] = temp[size - x - 1];
-        }
-
-        this.setBlockLocations();
     }
 
     public void oneDown() {
-
-        this.location.y++;
-        this.setBlockLocations();
+        this.y++;
     }
 
     public void oneUp() {
-
-        this.location.y--;
-        this.setBlockLocations();
+        this.y--;
     }
 
     public void oneRight() {
-
-        this.location.x++;
-        this.setBlockLocations();
+        this.x++;
     }
 
     public void oneLeft() {
-
-        this.location.x--;
-        this.setBlockLocations();
-    }
-
-    /**
-     * Used for rotations
-     * @return transposed matrix of current shape box
-     */
-    private Cell[][] transposeShape() {
-        Cell[][] temp = new Cell[size][size];
-        for(int y=0; y < size; y++) {
-            for(int x=0; x < size; x++) {
-                temp[y][x] = shape[x][y];
-            }
-        }
-        return temp;
-    }
-
-    /**
-     * Uses the shape's current orientation and position to
-     * set the actual location of the block-type cells on the field
-     */
-    private void setBlockLocations() {
-        for(int y=0; y < size; y++) {
-            for(int x=0; x < size; x++) {
-                if(shape[x][y].isShape()) {
-                    shape[x][y].setLocation(location.x + x, location.y + y);
-                }
-            }
-        }
-    }
-
-    /** 
-     * Set shape in square box.
-     * Creates new Cells that can be checked against the actual
-     * playing field.
-     * */
-    private void setShape() {
-        switch(this.type) {
-        case I:
-            this.size = 4;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[0][1];
-            this.blocks[1] = this.shape[1][1];
-            this.blocks[2] = this.shape[2][1];
-            this.blocks[3] = this.shape[3][1];
-            break;
-        case J:
-            this.size = 3;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[0][0];
-            this.blocks[1] = this.shape[0][1];
-            this.blocks[2] = this.shape[1][1];
-            this.blocks[3] = this.shape[2][1];
-            break;
-        case L:
-            this.size = 3;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[2][0];
-            this.blocks[1] = this.shape[0][1];
-            this.blocks[2] = this.shape[1][1];
-            this.blocks[3] = this.shape[2][1];
-            break;
-        case O:
-            this.size = 2;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[0][0];
-            this.blocks[1] = this.shape[1][0];
-            this.blocks[2] = this.shape[0][1];
-            this.blocks[3] = this.shape[1][1];
-            break;
-        case S:
-            this.size = 3;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[1][0];
-            this.blocks[1] = this.shape[2][0];
-            this.blocks[2] = this.shape[0][1];
-            this.blocks[3] = this.shape[1][1];
-            break;
-        case T:
-            this.size = 3;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[1][0];
-            this.blocks[1] = this.shape[0][1];
-            this.blocks[2] = this.shape[1][1];
-            this.blocks[3] = this.shape[2][1];
-            break;
-        case Z:
-            this.size = 3;
-            this.shape = initializeShape();
-            this.blocks[0] = this.shape[0][0];
-            this.blocks[1] = this.shape[1][0];
-            this.blocks[2] = this.shape[1][1];
-            this.blocks[3] = this.shape[2][1];
-            break;
-        }
-
-        // set type to SHAPE
-        for(int i=0; i < blocks.length; i++) {
-            this.blocks[i].setShape();
-        }
-    }
-
-    /**
-     * Creates the matrix for the shape
-     * @return
-     */
-    private Cell[][] initializeShape() {
-        Cell[][] newShape = new Cell[size][size];
-        for(int y=0; y < this.size; y++) {
-            for(int x=0; x < this.size; x++) {
-                newShape[x][y] = new Cell();
-            }
-        }
-        return newShape;
+        this.x--;
     }
 
     public boolean checkTSpin(Field field, MoveType lastMove1, MoveType lastMove2, Point lastLocation) {
@@ -272,20 +189,19 @@ public class Shape {
         if(!(lastMove1 == MoveType.TURNRIGHT || lastMove1 == MoveType.TURNLEFT 
                 || ((lastMove1 == MoveType.DOWN || lastMove1 == MoveType.DROP)
                         && (lastMove2 == MoveType.TURNLEFT || lastMove2 == MoveType.TURNRIGHT)
-                        && (lastLocation.equals(this.location)))))
+                        && (lastLocation.x == this.x && lastLocation.y == this.y))))
             return false;
 
         // check if 3/4 corners of the matrix are Blocks in the field
-        Cell[] corners = new Cell[4];
-        corners[0] = field.getCell(this.location.x, this.location.y);
-        corners[1] = field.getCell(this.location.x + 2, this.location.y);
-        corners[2] = field.getCell(this.location.x, this.location.y + 2);
-        corners[3] = field.getCell(this.location.x, this.location.y + 2);
-
         int counter = 0;
-        for(int i = 0; i < corners.length; i++)
-            if(corners[i] != null && corners[i].isBlock())
-                counter++;
+        if(field.isBlock(this.x, this.y))
+            counter++;
+        if(field.isBlock(this.x + 2, this.y))
+            counter++;
+        if(field.isBlock(this.x, this.y + 2))
+            counter++;
+        if(field.isBlock(this.x, this.y + 2))
+            counter++;
 
         if(counter == 3)
             return true;
@@ -295,8 +211,8 @@ public class Shape {
 
 
     public void setLocation(int x, int y) {
-        this.location = new Point(x, y);
-        setBlockLocations();
+        this.x = x;
+        this.y = y;
     }
 
     public void setLocation(Point p) {
@@ -304,15 +220,83 @@ public class Shape {
     }
 
     public void setDefaultLocation() {
-        setLocation(type.startPos());
+        setLocation(type.startX(), type.startY());
+    }
+
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
     }
 
+    /**
+     * Creates cells for the blocks of the shape at their current location,
+     * only meant for callers outside the search
+     */
     public Cell[] getBlocks() {
-        return this.blocks;
+        Cell[] blocks = new Cell[4];
+        for (int i=0; i < 4; i++) {
+            blocks[i] = new Cell(getBlockX(i), getBlockY(i), CellType.SHAPE);
+        }
+        return blocks;
+    }
+
+    /**
+     * @return field column of block i (0-3)
+     */
+    public int getBlockX(int i) {
+        return x + BLOCK_X[type.ordinal()][orientation][i];
+    }
+
+    /**
+     * @return field row of block i (0-3)
+     */
+    public int getBlockY(int i) {
+        return y + BLOCK_Y[type.ordinal()][orientation][i];
+    }
+
+    /**
+     * @return blocks in row r of the bounding box, bit i is box column i
+     */
+    public int getRowMask(int r) {
+        return ROW_MASKS[type.ordinal()][orientation][r];
+    }
+
+    /**
+     * @return blocks in row r of the bounding box, shifted to field columns
+     */
+    public int getFieldRowMask(int r) {
+        int mask = ROW_MASKS[type.ordinal()][orientation][r];
+        return (x >= 0) ? mask << x : mask >>> -x;
+    }
+
+    /**
+     * @return first and last rows and columns of the bounding box that hold blocks
+     */
+    public int getMinX() {
+        return MIN_X[type.ordinal()][orientation];
+    }
+
+    public int getMaxX() {
+        return MAX_X[type.ordinal()][orientation];
+    }
+
+    public int getMinY() {
+        return MIN_Y[type.ordinal()][orientation];
+    }
+
+    public int getMaxY() {
+        return MAX_Y[type.ordinal()][orientation];
     }
 
     public Point getLocation() {
-        return this.location;
+        return new Point(x, y);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
     }
 
     public int getOrientation(){
@@ -53,9 +53,17 @@ public enum ShapeType {
     }
 
     public Point startPos(){
+        return new Point(startX(), startY());
+    }
+
+    public int startX(){
         if(ordinal() == 3){
-            return new Point(4,-1);
+            return 4;
         }
-        return new Point(3,-1);
+        return 3;
+    }
+
+    public int startY(){
+        return -1;
     }
 }
@@ -0,0 +1,310 @@
+package org.gtagency.autotetris.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.gtagency.autotetris.field.CellType;
+import org.gtagency.autotetris.field.Field;
+import org.gtagency.autotetris.field.Shape;
+import org.gtagency.autotetris.field.ShapeType;
+import org.gtagency.autotetris.moves.MoveType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PlacementGenerator against a plain breadth first search on random boards.
+ *
+ * The reference search tests every cell of every state against the field
+ * and keeps a Shape and a move per state, the way the original Node based
+ * search did. The generator has to find the same terminals in the same
+ * order, with the same t-spin flags and move paths, once the placements
+ * that cover the cells of an earlier one are left out. Which placement of
+ * a set of cells is kept is tested on its own.
+ */
+public class PlacementGeneratorTest {
+
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+    private static final int BOARDS = 3000;
+
+    private static final ShapeType[] SHAPES = {
+        ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z
+    };
+
+    /**
+     * A terminal of the reference search
+     */
+    private static class Placement {
+        final int x;
+        final int y;
+        final int orientation;
+        final boolean tspin;
+        final List<MoveType> path;
+        final String cells;
+
+        Placement(Shape shape, boolean tspin, List<MoveType> path) {
+            this.x = shape.getX();
+            this.y = shape.getY();
+            this.orientation = shape.getOrientation();
+            this.tspin = tspin;
+            this.path = path;
+            StringBuilder cells = new StringBuilder();
+            Set<Integer> sorted = new TreeSet<Integer>();
+            for(int i=0; i < 4; i++) {
+                sorted.add(shape.getBlockY(i) * WIDTH + shape.getBlockX(i));
+            }
+            for(int cell : sorted) {
+                cells.append(cell).append(' ');
+            }
+            this.cells = cells.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + x + "," + y + "," + orientation + (tspin ? ",tspin" : "") + ") " + path;
+        }
+    }
+
+    @Test
+    public void sameTerminalsAsCellTestSearch() {
+        Random random = new Random(24);
+        PlacementGenerator generator = new PlacementGenerator(WIDTH, HEIGHT);
+        for(int b=0; b < BOARDS; b++) {
+            Field field = randomBoard(random);
+            for(ShapeType type : SHAPES) {
+                List<Placement> expected = keepFirstPerCells(search(field, type));
+                Shape shape = new Shape(type, type.startPos());
+                int count = generator.generate(field, shape);
+                assertEquals(describe(expected), describe(generator, count, shape), type + " on board " + b + "\n" + field);
+            }
+        }
+    }
+
+    /**
+     * O, I, S and Z reach the same cells in several orientations. The
+     * generator keeps one terminal per set of cells, the first the search
+     * finds, which has the shortest path and the lowest index of them.
+     */
+    @Test
+    public void onePlacementPerCellsOfSymmetricShapes() {
+        Random random = new Random(25);
+        PlacementGenerator generator = new PlacementGenerator(WIDTH, HEIGHT);
+        ShapeType[] symmetric = {ShapeType.O, ShapeType.I, ShapeType.S, ShapeType.Z};
+        int dropped = 0;
+        for(int b=0; b < BOARDS / 3; b++) {
+            Field field = randomBoard(random);
+            for(ShapeType type : symmetric) {
+                List<Placement> all = search(field, type);
+                Shape shape = new Shape(type, type.startPos());
+                int count = generator.generate(field, shape);
+                String where = type + " on board " + b + "\n" + field;
+
+                Set<String> kept = new HashSet<String>();
+                for(int t=0; t < count; t++) {
+                    generator.setShape(t, shape);
+                    Placement placement = new Placement(shape, generator.isTSpin(t), null);
+                    assertTrue(kept.add(placement.cells), "cells kept twice, " + where);
+
+                    List<MoveType> path = new ArrayList<MoveType>();
+                    generator.getPath(t, path);
+                    Placement first = null;
+                    int shortest = Integer.MAX_VALUE;
+                    for(Placement other : all) {
+                        if(other.cells.equals(placement.cells)) {
+                            first = (first == null) ? other : first;
+                            shortest = Math.min(shortest, other.path.size());
+                        }
+                    }
+                    assertEquals(shortest, path.size(), "not the shortest path, " + where);
+                    assertEquals(key(first.x, first.y, first.orientation),
+                            key(generator.getX(t), generator.getY(t), generator.getOrientation(t)), "not the first placement, " + where);
+                }
+                Set<String> cells = new HashSet<String>();
+                for(Placement placement : all) {
+                    cells.add(placement.cells);
+                }
+                assertEquals(cells, kept, "cells lost, " + where);
+                assertEquals(all.size() - count, generator.getDuplicates(), where);
+                dropped += generator.getDuplicates();
+            }
+        }
+        assertTrue(dropped > 0);
+    }
+
+    /**
+     * Only T placements are t-spins, and no two orientations of T cover the
+     * same cells, so the t-spin flag is never merged away: every T placement
+     * is kept with its own flag.
+     */
+    @Test
+    public void tSpinPlacementsAreKept() {
+        Random random = new Random(26);
+        PlacementGenerator generator = new PlacementGenerator(WIDTH, HEIGHT);
+        int tSpins = 0;
+        for(int b=0; b < BOARDS; b++) {
+            Field field = randomBoard(random);
+            List<Placement> all = search(field, ShapeType.T);
+            int count = generator.generate(field, new Shape(ShapeType.T, ShapeType.T.startPos()));
+            assertEquals(0, generator.getDuplicates(), "board " + b + "\n" + field);
+            assertEquals(all.size(), count, "board " + b + "\n" + field);
+            for(int t=0; t < count; t++) {
+                assertEquals(all.get(t).tspin, generator.isTSpin(t), "board " + b + "\n" + field);
+                tSpins += generator.isTSpin(t) ? 1 : 0;
+            }
+        }
+        assertTrue(tSpins > 0);
+    }
+
+    /**
+     * Breadth first search over (x, y, orientation) from the spawn location,
+     * branching left, turn left, right, turn right, down
+     */
+    static List<Placement> search(Field field, ShapeType type) {
+        List<Placement> terminals = new ArrayList<Placement>();
+        Point start = type.startPos();
+        Shape shape = new Shape(type, start.x, start.y, 0);
+        if(!fits(field, shape))
+            return terminals;
+        HashMap<String, String> parents = new HashMap<String, String>(); // state to parent state, "" for the start
+        HashMap<String, MoveType> moves = new HashMap<String, MoveType>(); // move into the state
+        ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+        parents.put(key(start.x, start.y, 0), "");
+        queue.add(new int[] {start.x, start.y, 0});
+        int[][] branches = {{-1, 0, 0}, {0, 0, 3}, {1, 0, 0}, {0, 0, 1}, {0, 1, 0}}; // dx, dy, turns right
+        MoveType[] branchMoves = {MoveType.LEFT, MoveType.TURNLEFT, MoveType.RIGHT, MoveType.TURNRIGHT, MoveType.DOWN};
+        while(!queue.isEmpty()) {
+            int[] s = queue.poll();
+            String current = key(s[0], s[1], s[2]);
+            shape.setLocation(s[0], s[1] + 1);
+            shape.setOrientation(s[2]);
+            if(!fits(field, shape)) {
+                shape.setLocation(s[0], s[1]);
+                if(shape.getY() + shape.getMinY() >= 0) {
+                    terminals.add(new Placement(shape, isTSpin(field, shape, current, parents, moves), path(current, parents, moves)));
+                }
+            }
+            for(int k=0; k < branches.length; k++) {
+                int x = s[0] + branches[k][0];
+                int y = s[1] + branches[k][1];
+                int o = (s[2] + branches[k][2]) % 4;
+                String next = key(x, y, o);
+                if(parents.containsKey(next))
+                    continue;
+                shape.setLocation(x, y);
+                shape.setOrientation(o);
+                if(fits(field, shape)) {
+                    parents.put(next, current);
+                    moves.put(next, branchMoves[k]);
+                    queue.add(new int[] {x, y, o});
+                }
+            }
+        }
+        return terminals;
+    }
+
+    /**
+     * Every block inside the walls and the floor, above the field or on an empty or SHAPE cell
+     */
+    private static boolean fits(Field field, Shape shape) {
+        for(int i=0; i < 4; i++) {
+            int x = shape.getBlockX(i);
+            int y = shape.getBlockY(i);
+            if(x < 0 || x >= field.getWidth() || y >= field.getHeight() || y < -1)
+                return false;
+            if(y >= 0) {
+                CellType cell = field.getState(x, y);
+                if(cell == CellType.BLOCK || cell == CellType.SOLID)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTSpin(Field field, Shape shape, String state, HashMap<String, String> parents, HashMap<String, MoveType> moves) {
+        String parent = parents.get(state);
+        if(parent.isEmpty() || parents.get(parent).isEmpty())
+            return false;
+        String[] p = parent.split(",");
+        Point lastLocation = new Point(Integer.parseInt(p[0]), Integer.parseInt(p[1]));
+        return shape.checkTSpin(field, moves.get(state), moves.get(parent), lastLocation);
+    }
+
+    private static List<MoveType> path(String state, HashMap<String, String> parents, HashMap<String, MoveType> moves) {
+        List<MoveType> path = new ArrayList<MoveType>();
+        for(; !parents.get(state).isEmpty(); state = parents.get(state)) {
+            path.add(0, moves.get(state));
+        }
+        return path;
+    }
+
+    private static String key(int x, int y, int o) {
+        return x + "," + y + "," + o;
+    }
+
+    /**
+     * Drops the placements that cover the same cells as an earlier one with the same t-spin flag
+     */
+    static List<Placement> keepFirstPerCells(List<Placement> placements) {
+        List<Placement> kept = new ArrayList<Placement>();
+        Set<String> seen = new HashSet<String>();
+        for(Placement placement : placements) {
+            if(seen.add(placement.cells + placement.tspin)) {
+                kept.add(placement);
+            }
+        }
+        return kept;
+    }
+
+    private static String describe(List<Placement> placements) {
+        StringBuilder s = new StringBuilder();
+        for(Placement placement : placements) {
+            s.append(placement).append('\n');
+        }
+        return s.toString();
+    }
+
+    private static String describe(PlacementGenerator generator, int count, Shape shape) {
+        StringBuilder s = new StringBuilder();
+        for(int t=0; t < count; t++) {
+            List<MoveType> path = new ArrayList<MoveType>();
+            generator.getPath(t, path);
+            s.append("(").append(generator.getX(t)).append(",").append(generator.getY(t)).append(",")
+                    .append(generator.getOrientation(t)).append(generator.isTSpin(t) ? ",tspin" : "").append(") ")
+                    .append(path).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * A board of random column heights with holes and overhangs under the
+     * tops, sometimes with solid rows at the bottom. The top 4 rows stay
+     * empty so every shape can spawn.
+     */
+    static Field randomBoard(Random random) {
+        Field field = new Field(WIDTH, HEIGHT);
+        int full = (1 << WIDTH) - 1;
+        int solidRows = (random.nextInt(4) == 0) ? 1 + random.nextInt(3) : 0;
+        for(int y = HEIGHT - solidRows; y < HEIGHT; y++) {
+            field.setRow(y, 0, full, 0);
+        }
+        int maxHeight = random.nextInt(HEIGHT - 4 - solidRows + 1);
+        for(int x=0; x < WIDTH; x++) {
+            int height = random.nextInt(maxHeight + 1);
+            for(int y = HEIGHT - solidRows - height; y < HEIGHT - solidRows; y++) {
+                if(random.nextInt(4) != 0) {
+                    field.setState(x, y, CellType.BLOCK);
+                }
+            }
+        }
+        return field;
+    }
+}
@@ -0,0 +1,125 @@
+package org.gtagency.autotetris.field;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips of Field.apply and Field.undo on random boards.
+ *
+ * The search walks its placements with apply and undo on one board and
+ * relies on the incremental column features and the Zobrist hash, so every
+ * apply is compared with place and removeFullRows on a clone and with a
+ * board rebuilt from the rows, and every undo with the board before it.
+ */
+public class FieldTest {
+
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+    private static final int BOARDS = 2000;
+    private static final int PLIES = 4; // applies stacked before undoing them
+
+    private static final ShapeType[] SHAPES = {
+        ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z
+    };
+
+    @Test
+    public void applyAndUndoRoundTrip() {
+        Random random = new Random(4);
+        for(int b=0; b < BOARDS; b++) {
+            Field field = randomBoard(random);
+            String[] before = new String[PLIES];
+            int applied = 0;
+            for(int p=0; p < PLIES; p++) {
+                Shape shape = dropRandomShape(field, random);
+                if(shape == null)
+                    break;
+                before[p] = describe(field);
+
+                Field reference = field.clone();
+                reference.place(shape);
+                int cleared = reference.removeFullRows();
+
+                assertEquals(cleared, field.apply(shape), "rows cleared, board " + b);
+                applied++;
+                assertEquals(describe(reference), describe(field), "apply, board " + b);
+                assertEquals(describe(rebuild(field)), describe(field), "incremental features, board " + b);
+            }
+            for(int p = applied - 1; p >= 0; p--) {
+                field.undo();
+                assertEquals(before[p], describe(field), "undo, board " + b);
+            }
+        }
+    }
+
+    /**
+     * A board with random rows at the bottom, some of them one cell short
+     * of full so that placements clear rows, and sometimes solid rows below
+     */
+    private static Field randomBoard(Random random) {
+        Field field = new Field(WIDTH, HEIGHT);
+        int full = (1 << WIDTH) - 1;
+        int solidRows = (random.nextInt(4) == 0) ? 1 + random.nextInt(3) : 0;
+        int rows = random.nextInt(HEIGHT - 4);
+        for(int i=0; i < rows; i++) {
+            int y = HEIGHT - 1 - i;
+            if(i < solidRows) {
+                field.setRow(y, 0, full, 0);
+            } else if(random.nextInt(3) == 0) {
+                field.setRow(y, full & ~(1 << random.nextInt(WIDTH)), 0, 0);
+            } else {
+                field.setRow(y, random.nextInt(full) & full, 0, 0);
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Drops a random shape from the top of a random column
+     * @return the landed shape, or null if it does not fit at the top
+     */
+    private static Shape dropRandomShape(Field field, Random random) {
+        Shape shape = new Shape(SHAPES[random.nextInt(SHAPES.length)], 0, 0, random.nextInt(4));
+        int minX = -shape.getMinX();
+        int maxX = WIDTH - 1 - shape.getMaxX();
+        shape.setLocation(minX + random.nextInt(maxX - minX + 1), -shape.getMinY());
+        if(shape.hasCollision(field))
+            return null;
+        while(true) {
+            shape.oneDown();
+            if(shape.isOutOfBoundaries(field) || shape.hasCollision(field)) {
+                shape.oneUp();
+                return shape;
+            }
+        }
+    }
+
+    /**
+     * A board with the same rows whose features are computed from scratch
+     */
+    private static Field rebuild(Field field) {
+        Field copy = new Field(WIDTH, HEIGHT);
+        for(int y=0; y < HEIGHT; y++) {
+            copy.setRow(y, field.getBlockRow(y), field.getSolidRow(y), field.getShapeRow(y));
+        }
+        return copy;
+    }
+
+    private static String describe(Field field) {
+        StringBuilder s = new StringBuilder(field.toString());
+        s.append("\nhash ").append(field.getHash());
+        s.append(" holes ").append(field.getHoles());
+        s.append(" sided ").append(field.getSidedHoles());
+        s.append(" transitions ").append(field.getTransitions());
+        s.append(" blocks ").append(field.getBlockCount());
+        s.append(" max ").append(field.getMaxHeight());
+        s.append("\ncolumns");
+        for(int x=0; x < WIDTH; x++) {
+            s.append(' ').append(field.getColumnMask(x)).append('/').append(field.getColumnHeight(x))
+                    .append('/').append(field.getColumnBlocks(x)).append('/').append(field.getColumnHoles(x));
+        }
+        return s.toString();
+    }
+}